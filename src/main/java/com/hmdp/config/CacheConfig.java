@@ -0,0 +1,22 @@
+package com.hmdp.config;
+
+import com.hmdp.utils.BinaryCacheCodec;
+import com.hmdp.utils.CacheCodec;
+import com.hmdp.utils.JsonCacheCodec;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class CacheConfig {
+    @Bean
+    public CacheCodec cacheCodec(@Value("${hmdp.cache.codec.type:json}") String type,
+                                 @Value("${hmdp.cache.codec.compress-threshold:1024}") int compressThreshold) {
+        // json 为原有的 hutool 格式，binary 为紧凑二进制格式（同时兼容读取 json）。
+        // 旧节点读不了 binary，所有节点都能读取 binary 之后才能切换
+        if ("binary".equalsIgnoreCase(type)) {
+            return new BinaryCacheCodec(compressThreshold);
+        }
+        return new JsonCacheCodec();
+    }
+}
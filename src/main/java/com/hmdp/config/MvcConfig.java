@@ -16,7 +16,7 @@ public class MvcConfig implements WebMvcConfigurer {
 
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
-        registry.addInterceptor(new LoginInterceptor()).excludePathPatterns("/upload/**","/voucher/**","/shop-type/**","/shop/**","/blog/hot","/user/code","/user/login").order(1);
+        registry.addInterceptor(new LoginInterceptor()).excludePathPatterns("/upload/**","/voucher/list/**","/shop-type/list","/shop/**","/blog/hot","/user/code","/user/login").order(1);
         registry.addInterceptor(new RefreshTokenInterceptor(stringRedisTemplate)).addPathPatterns("/**").order(0);
     }
 }
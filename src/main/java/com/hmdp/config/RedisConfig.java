@@ -0,0 +1,45 @@
+package com.hmdp.config;
+
+import com.hmdp.utils.CacheInvalidateListener;
+import com.hmdp.utils.HotKeyDetector;
+import com.hmdp.utils.OrderStatusTracker;
+import com.hmdp.utils.SeckillStock;
+import com.hmdp.utils.ShopBloomFilter;
+import com.hmdp.utils.ShopChangeFeed;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import static com.hmdp.utils.RedisConstants.CACHE_HOT_KEY_CHANNEL;
+import static com.hmdp.utils.RedisConstants.CACHE_INVALIDATE_CHANNEL;
+import static com.hmdp.utils.RedisConstants.ORDER_STATUS_CHANNEL;
+import static com.hmdp.utils.RedisConstants.SECKILL_SOLD_OUT_CHANNEL;
+import static com.hmdp.utils.RedisConstants.SHOP_BLOOM_CHANNEL;
+import static com.hmdp.utils.RedisConstants.SHOP_CHANGED_CHANNEL;
+
+@Configuration
+public class RedisConfig {
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(
+            RedisConnectionFactory connectionFactory, CacheInvalidateListener cacheInvalidateListener,
+            ShopBloomFilter shopBloomFilter, HotKeyDetector hotKeyDetector, ShopChangeFeed shopChangeFeed,
+            SeckillStock seckillStock, OrderStatusTracker orderStatusTracker) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        // 缓存失效广播
+        container.addMessageListener(cacheInvalidateListener, new ChannelTopic(CACHE_INVALIDATE_CHANNEL));
+        // 新增店铺 id 广播，更新各节点的布隆过滤器
+        container.addMessageListener(shopBloomFilter, new ChannelTopic(SHOP_BLOOM_CHANNEL));
+        // 热点 key 广播，各节点保存本地副本
+        container.addMessageListener(hotKeyDetector, new ChannelTopic(CACHE_HOT_KEY_CHANNEL));
+        // 店铺变更广播
+        container.addMessageListener(shopChangeFeed, new ChannelTopic(SHOP_CHANGED_CHANNEL));
+        // 秒杀券售罄、补库存广播
+        container.addMessageListener(seckillStock, new ChannelTopic(SECKILL_SOLD_OUT_CHANNEL));
+        // 订单状态变化广播，唤醒长轮询的请求
+        container.addMessageListener(orderStatusTracker, new ChannelTopic(ORDER_STATUS_CHANNEL));
+        return container;
+    }
+}
@@ -0,0 +1,80 @@
+package com.hmdp.controller;
+
+
+import com.hmdp.dto.Result;
+import com.hmdp.utils.CacheMetrics;
+import com.hmdp.utils.CacheRebuildExecutor;
+import com.hmdp.utils.HotKeyDetector;
+import com.hmdp.utils.ShopBloomFilter;
+import com.hmdp.utils.ShopCacheWarmer;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+
+/**
+ * <p>
+ * 缓存运行状态
+ * </p>
+ */
+@RestController
+@RequestMapping("/cache")
+public class CacheController {
+
+    @Resource
+    private CacheMetrics cacheMetrics;
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+    @Resource
+    private CacheRebuildExecutor cacheRebuildExecutor;
+    @Resource
+    private ShopBloomFilter shopBloomFilter;
+    @Resource
+    private ShopCacheWarmer shopCacheWarmer;
+
+    /**
+     * 按 key 前缀查询缓存指标，同样的数据也注册到了 Micrometer（/actuator/metrics/cache.requests 等）
+     * @return key 前缀 -> 本地缓存/Redis 命中次数、查库与序列化耗时、重建次数与锁竞争次数
+     */
+    @GetMapping("/stats")
+    public Result queryStats() {
+        return Result.ok(cacheMetrics.snapshot());
+    }
+
+    /**
+     * 查询缓存重建线程池的状态
+     * @return 队列长度、活跃线程数、被去重/拒绝/失败的任务数
+     */
+    @GetMapping("/rebuild")
+    public Result queryRebuild() {
+        return Result.ok(cacheRebuildExecutor.getStatus());
+    }
+
+    /**
+     * 查询本节点当前的热点 key
+     * @return 热点 key 及窗口内估算的访问次数
+     */
+    @GetMapping("/hot-keys")
+    public Result queryHotKeys() {
+        return Result.ok(hotKeyDetector.getHotKeys());
+    }
+
+    /**
+     * 查询店铺布隆过滤器的容量与估算误判率，拦截次数见 /cache/stats 的 filterReject
+     * @return 布隆过滤器信息
+     */
+    @GetMapping("/bloom")
+    public Result queryBloom() {
+        return Result.ok(shopBloomFilter.getInfo());
+    }
+
+    /**
+     * 查询启动时店铺缓存预热的进度
+     * @return 总数、已预热数量、是否已达到可接收流量的比例
+     */
+    @GetMapping("/warmup")
+    public Result queryWarmup() {
+        return Result.ok(shopCacheWarmer.getProgress());
+    }
+}
@@ -1,12 +1,10 @@
 package com.hmdp.controller;
 
 
-import cn.hutool.core.util.StrUtil;
-import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.service.IShopService;
-import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.ShopNameSuggester;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
@@ -25,6 +23,8 @@ public class ShopController {
 
     @Resource
     public IShopService shopService;
+    @Resource
+    private ShopNameSuggester shopNameSuggester;
 
     /**
      * 根据id查询商铺信息
@@ -43,10 +43,7 @@ public class ShopController {
      */
     @PostMapping
     public Result saveShop(@RequestBody Shop shop) {
-        // 写入数据库
-        shopService.save(shop);
-        // 返回店铺id
-        return Result.ok(shop.getId());
+        return shopService.saveShop(shop);
     }
 
     /**
@@ -64,19 +61,21 @@ public class ShopController {
      * 根据商铺类型分页查询商铺信息
      * @param typeId 商铺类型
      * @param current 页码
+     * @param lastId 上一页最后一个商铺的id，传了则按游标翻页，忽略页码
+     * @param x 经度，与 y 一起传时按距离由近到远排序
+     * @param y 纬度
      * @return 商铺列表
      */
     @GetMapping("/of/type")
     public Result queryShopByType(
             @RequestParam("typeId") Integer typeId,
-            @RequestParam(value = "current", defaultValue = "1") Integer current
+            @RequestParam(value = "current", defaultValue = "1") Integer current,
+            @RequestParam(value = "lastId", required = false) Long lastId,
+            @RequestParam(value = "x", required = false) Double x,
+            @RequestParam(value = "y", required = false) Double y
     ) {
-        // 根据类型分页查询
-        Page<Shop> page = shopService.query()
-                .eq("type_id", typeId)
-                .page(new Page<>(current, SystemConstants.DEFAULT_PAGE_SIZE));
-        // 返回数据
-        return Result.ok(page.getRecords());
+        // 从 Redis 类型索引或 GEO 集合分页取 id，再通过缓存批量查询商铺详情
+        return Result.ok(shopService.queryByType(typeId.longValue(), current, lastId, x, y));
     }
 
     /**
@@ -90,11 +89,21 @@ public class ShopController {
             @RequestParam(value = "name", required = false) String name,
             @RequestParam(value = "current", defaultValue = "1") Integer current
     ) {
-        // 根据类型分页查询
-        Page<Shop> page = shopService.query()
-                .like(StrUtil.isNotBlank(name), "name", name)
-                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
-        // 返回数据
-        return Result.ok(page.getRecords());
+        // 从名称索引分页查询，按匹配程度排序
+        return Result.ok(shopService.queryByName(name, current));
+    }
+
+    /**
+     * 店铺名称输入提示
+     * @param prefix 已输入的名称前缀
+     * @param limit 返回数量
+     * @return 以该前缀开头、按销量和评分排序的店铺名称
+     */
+    @GetMapping("/suggest")
+    public Result suggestShopName(
+            @RequestParam("prefix") String prefix,
+            @RequestParam(value = "limit", defaultValue = "10") Integer limit
+    ) {
+        return Result.ok(shopNameSuggester.suggest(prefix, limit));
     }
 }
@@ -4,6 +4,7 @@ package com.hmdp.controller;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Voucher;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.SeckillRateLimiter;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
@@ -22,6 +23,8 @@ public class VoucherController {
 
     @Resource
     private IVoucherService voucherService;
+    @Resource
+    private SeckillRateLimiter seckillRateLimiter;
 
     /**
      * 新增普通券
@@ -45,6 +48,45 @@ public class VoucherController {
         return Result.ok(voucher.getId());
     }
 
+    /**
+     * 补充秒杀券库存
+     * @param voucherId 优惠券id
+     * @param amount 增加的库存，必须大于0
+     * @return 秒杀券不存在或数量不合法时返回失败
+     */
+    @PostMapping("seckill/{id}/stock")
+    public Result addSeckillStock(@PathVariable("id") Long voucherId, @RequestParam("amount") Integer amount) {
+        return voucherService.addSeckillStock(voucherId, amount);
+    }
+
+    /**
+     * 查询秒杀券的限流配置
+     * @param voucherId 优惠券id
+     * @return 全局和单节点的每秒放行数、突发容量
+     */
+    @GetMapping("seckill/{id}/limit")
+    public Result querySeckillLimit(@PathVariable("id") Long voucherId) {
+        return Result.ok(seckillRateLimiter.getLimit(voucherId));
+    }
+
+    /**
+     * 修改秒杀券的限流配置，不传的参数不修改，传负数恢复默认值
+     * @param voucherId 优惠券id
+     * @param rate 所有节点加起来每秒放行的请求数，0 表示不限制
+     * @param burst 全局允许的瞬时突发
+     * @param localRate 单个节点每秒放行的请求数，0 表示不限制
+     * @param localBurst 单个节点允许的瞬时突发
+     * @return 修改后的配置
+     */
+    @PutMapping("seckill/{id}/limit")
+    public Result updateSeckillLimit(@PathVariable("id") Long voucherId,
+                                     @RequestParam(value = "rate", required = false) Double rate,
+                                     @RequestParam(value = "burst", required = false) Double burst,
+                                     @RequestParam(value = "localRate", required = false) Double localRate,
+                                     @RequestParam(value = "localBurst", required = false) Double localBurst) {
+        return Result.ok(seckillRateLimiter.updateLimit(voucherId, rate, burst, localRate, localBurst));
+    }
+
     /**
      * 查询店铺的优惠券列表
      * @param shopId 店铺id
@@ -3,10 +3,16 @@ package com.hmdp.controller;
 
 import com.hmdp.dto.Result;
 import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.OrderStatusTracker;
+import com.hmdp.utils.OrderStreamConsumer;
+import com.hmdp.utils.UserHolder;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import javax.annotation.Resource;
 
@@ -24,10 +30,42 @@ public class VoucherOrderController {
 
     @Resource
     private IVoucherOrderService voucherOrderService;
+    @Resource
+    private OrderStreamConsumer orderStreamConsumer;
+    @Resource
+    private OrderStatusTracker orderStatusTracker;
 
     @PostMapping("seckill/{id}")
     public Result seckillVoucher(@PathVariable("id") Long voucherId) {
 
         return voucherOrderService.seckillVoucher(voucherId);
     }
+
+    /**
+     * 查询秒杀订单的处理状态，只读 Redis
+     * @param orderId 秒杀接口返回的订单id
+     * @param waitMillis 大于 0 时长轮询：订单还在排队就等到状态变化或超时，最多等 30 秒
+     * @return QUEUED、PERSISTED 或 FAILED
+     */
+    @GetMapping("{id}/status")
+    public DeferredResult<Result> queryOrderStatus(@PathVariable("id") Long orderId,
+                                                   @RequestParam(value = "waitMillis", defaultValue = "0") Long waitMillis) {
+        Long userId = UserHolder.getUser().getId();
+        if (waitMillis <= 0) {
+            DeferredResult<Result> result = new DeferredResult<>();
+            String status = orderStatusTracker.getStatus(orderId, userId);
+            result.setResult(status == null ? Result.fail("订单不存在或已过期") : Result.ok(status));
+            return result;
+        }
+        return orderStatusTracker.watch(orderId, userId, Math.min(waitMillis, 30000L));
+    }
+
+    /**
+     * 查询订单消费情况
+     * @return 本节点各消费者持有的分区和处理数量，各分区的待确认数量与消费延迟
+     */
+    @GetMapping("consumers")
+    public Result queryConsumers() {
+        return Result.ok(orderStreamConsumer.getStatus());
+    }
 }
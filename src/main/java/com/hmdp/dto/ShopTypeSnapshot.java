@@ -0,0 +1,22 @@
+package com.hmdp.dto;
+
+import com.hmdp.entity.ShopType;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * 店铺类型列表的不可变快照，body 是已经序列化好的响应
+ */
+@Getter
+@AllArgsConstructor
+public class ShopTypeSnapshot {
+    /**
+     * Redis 中的版本号，版本变化时各节点重新加载
+     */
+    private final long version;
+    private final List<ShopType> types;
+    private final byte[] body;
+    private final String etag;
+}
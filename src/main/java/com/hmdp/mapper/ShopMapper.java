@@ -2,6 +2,10 @@ package com.hmdp.mapper;
 
 import com.hmdp.entity.Shop;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.time.LocalDateTime;
+import java.util.List;
 
 /**
  * <p>
@@ -13,4 +17,11 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface ShopMapper extends BaseMapper<Shop> {
 
+    List<Shop> queryNearby(@Param("typeId") Long typeId, @Param("x") Double x, @Param("y") Double y,
+                           @Param("radius") Double radius, @Param("from") Integer from, @Param("size") Integer size);
+
+    /**
+     * 数据库当前时间，update_time 由数据库生成，增量拉取的时间窗口也要用数据库的时钟
+     */
+    LocalDateTime selectNow();
 }
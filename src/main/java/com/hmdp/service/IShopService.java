@@ -4,6 +4,8 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+
 /**
  * <p>
  *  服务类
@@ -16,5 +18,13 @@ public interface IShopService extends IService<Shop> {
 
     Object queryById(Long id);
 
+    Result saveShop(Shop shop);
+
     Result update(Shop shop);
+
+    List<Shop> queryByIds(List<Long> ids);
+
+    List<Shop> queryByType(Long typeId, Integer current, Long lastId, Double x, Double y);
+
+    List<Shop> queryByName(String name, Integer current);
 }
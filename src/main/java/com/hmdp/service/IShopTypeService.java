@@ -1,5 +1,6 @@
 package com.hmdp.service;
 
+import com.hmdp.dto.ShopTypeSnapshot;
 import com.hmdp.entity.ShopType;
 import com.baomidou.mybatisplus.extension.service.IService;
 
@@ -13,4 +14,7 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface IShopTypeService extends IService<ShopType> {
 
+    ShopTypeSnapshot getSnapshot();
+
+    long bumpVersion();
 }
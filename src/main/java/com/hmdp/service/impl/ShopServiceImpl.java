@@ -1,25 +1,31 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.util.BooleanUtil;
+import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
 import com.hmdp.utils.CacheClient;
-import com.hmdp.utils.RedisData;
+import com.hmdp.utils.ShopBloomFilter;
+import com.hmdp.utils.ShopChangeFeed;
+import com.hmdp.utils.ShopGeoGrid;
+import com.hmdp.utils.ShopNameIndex;
+import com.hmdp.utils.ShopTypeIndex;
+import com.hmdp.utils.SystemConstants;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.Resource;
-import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.*;
 
@@ -38,6 +44,16 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     private StringRedisTemplate stringRedisTemplate;
     @Resource
     private CacheClient cacheClient;
+    @Resource
+    private ShopBloomFilter shopBloomFilter;
+    @Resource
+    private ShopChangeFeed shopChangeFeed;
+    @Resource
+    private ShopTypeIndex shopTypeIndex;
+    @Resource
+    private ShopGeoGrid shopGeoGrid;
+    @Resource
+    private ShopNameIndex shopNameIndex;
     @Override
     public Result queryById(Long id) {
         // 解决缓存穿透
@@ -59,128 +75,129 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         return Result.ok(shop);
     }
 
-    @Transactional
     @Override
-    public Result update(Shop shop) {
-        Long id=shop.getId();
-        if(id==null){
-            return Result.fail("店铺id不能为空");
+    public Result saveShop(Shop shop) {
+        // 写入数据库
+        save(shop);
+        // 加入布隆过滤器，否则新店铺会被当作不存在的 id 拦截
+        shopBloomFilter.add(shop.getId());
+        // 加入类型索引
+        shopTypeIndex.put(shop);
+        // 开启了变更订阅时由它通知各节点，否则直接广播
+        if (!shopChangeFeed.isEnabled()) {
+            shopChangeFeed.publish(Collections.singletonList(shop.getId()));
         }
-        //1. 更新数据库
-        updateById(shop);
-        //2. 删除缓存
-        stringRedisTemplate.delete(CACHE_SHOP_KEY+ id);
-        return Result.ok();
-    }
-
-    private boolean tryLock(String key){
-       Boolean flag= stringRedisTemplate.opsForValue().setIfAbsent(key,"1",10, TimeUnit.SECONDS);
-       return BooleanUtil.isTrue(flag);
+        // 返回店铺id
+        return Result.ok(shop.getId());
     }
 
-    private void unlock(String key){
-        stringRedisTemplate.delete (key);
+    @Override
+    public List<Shop> queryByIds(List<Long> ids) {
+        // 批量查询，一次 MGET + 一次 IN 查询
+        return cacheClient.queryBatchWithPassThrough(
+                CACHE_SHOP_KEY, ids, Shop.class, this::listByIds, Shop::getId, CACHE_SHOP_TTL, TimeUnit.MINUTES);
     }
 
-    public Shop queryWithMutex(Long id) {
-        //解决缓存击穿
-        String key=CACHE_SHOP_KEY+ id;
-        //1. 从 Redis 查询商铺缓存
-        String shopJson=   stringRedisTemplate.opsForValue().get(key);
-        //2. 判断是否存在.null和""都会被算作 blank
-        if(StrUtil.isNotBlank(shopJson)){
-            //3. 存在。直接返回。
-            return JSONUtil.toBean(shopJson, Shop.class);
+    @Override
+    public List<Shop> queryByType(Long typeId, Integer current, Long lastId, Double x, Double y) {
+        int pageSize = SystemConstants.DEFAULT_PAGE_SIZE;
+        if (x != null && y != null) {
+            return queryNearby(typeId, current, x, y, pageSize);
         }
-        //判断命中的是否是空值
-        if(shopJson!=null){
-            return null;
+        List<Long> ids;
+        if (shopTypeIndex.isReady()) {
+            // 1.从 Redis 的类型索引中取一页 id，带了 lastId 时按游标翻页
+            ids = lastId != null
+                    ? shopTypeIndex.queryAfter(typeId, lastId, pageSize)
+                    : shopTypeIndex.queryPage(typeId, current, pageSize);
+        } else {
+            // 2.索引还没建好，按类型分页查询 id
+            Page<Shop> page = query()
+                    .select("id")
+                    .eq("type_id", typeId)
+                    .gt(lastId != null, "id", lastId)
+                    .orderByAsc("id")
+                    .page(new Page<>(lastId != null ? 1 : current, pageSize));
+            ids = page.getRecords().stream().map(Shop::getId).collect(Collectors.toList());
         }
-        //4. shopJson为null,说明缓存里不存在。实现缓存重建。
-        //4.1 获取互斥锁
-        String lockKey="lock:shop:"+id;
-        Shop shop= null;
-        try {
-            boolean isLock=tryLock(lockKey);
-
-            //4.2 判断是否获取成功
-            if(!isLock){
-                //4.3 失败。休眠并且重试
-                Thread.sleep(50);
-                return queryWithMutex(id);
-            }
-
-            //4.4 获取锁成功 根据 ID 查询数据
-            shop = getById(id);
-            //模拟查询数据库延时
-            //Thread.sleep(200);
-            if(shop==null){
-                //防止缓存穿透，将空值写入 redis
-                stringRedisTemplate.opsForValue().set(key,"", CACHE_NULL_TTL, TimeUnit.MINUTES);
-                 return null;
-            }
-
-            stringRedisTemplate.opsForValue().set(CACHE_SHOP_KEY + id, JSONUtil.toJsonStr(shop), CACHE_SHOP_TTL, TimeUnit.MINUTES);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
+        // 3.通过缓存批量查询商铺详情
+        return queryByIds(ids);
+    }
+
+    private List<Shop> queryNearby(Long typeId, Integer current, Double x, Double y, int pageSize) {
+        // 1.按距离取一页，优先用进程内的网格索引，其次是 Redis GEO 集合，都没建好时由数据库计算距离
+        Map<Long, Double> nearby;
+        if (shopGeoGrid.isReady()) {
+            nearby = shopGeoGrid.queryNearby(typeId, x, y, shopTypeIndex.getRadiusMeters(), current, pageSize);
+        } else if (shopTypeIndex.isReady()) {
+            nearby = shopTypeIndex.queryNearby(typeId, x, y, current, pageSize);
+        } else {
+            return baseMapper.queryNearby(typeId, x, y, shopTypeIndex.getRadiusMeters(), (current - 1) * pageSize, pageSize);
         }
-        finally {
-            //释放互斥锁
-            unlock(lockKey);
+        // 2.批量查询商铺详情，结果与 id 顺序一致
+        List<Shop> shops = queryByIds(new ArrayList<>(nearby.keySet()));
+        // 3.填充距离，缓存里的对象是共享的，复制一份再设置
+        List<Shop> result = new ArrayList<>(shops.size());
+        for (Shop shop : shops) {
+            Shop copy = BeanUtil.copyProperties(shop, Shop.class);
+            copy.setDistance(nearby.get(shop.getId()));
+            result.add(copy);
         }
-
-        return shop;
-    }
-    public void saveShop2Redis(Long id, Long expireSeconds) throws InterruptedException {
-        Shop shop=getById(id);
-        //Thread.sleep(200L);
-        //封装逻辑过期时间
-        RedisData redisData=new RedisData();
-        redisData.setData(shop);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(expireSeconds)) ;
-        stringRedisTemplate.opsForValue().set(CACHE_SHOP_KEY+id, JSONUtil.toJsonStr(redisData));
+        return result;
     }
 
-    //新建一个线程池
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR= Executors.newFixedThreadPool(10);
+    @Override
+    public List<Shop> queryByName(String name, Integer current) {
+        int pageSize = SystemConstants.MAX_PAGE_SIZE;
+        if (StrUtil.isBlank(name) || !shopNameIndex.isReady()) {
+            // 没有关键字，或者索引还没建好时查数据库
+            return query()
+                    .like(StrUtil.isNotBlank(name), "name", name)
+                    .page(new Page<>(current, pageSize))
+                    .getRecords();
+        }
+        // 从名称索引取一页 id，再通过缓存批量查询商铺详情
+        return queryByIds(shopNameIndex.search(name, current, pageSize));
+    }
 
-    public Shop queryWithLogicalExpire(Long id) {
-        String key=CACHE_SHOP_KEY+ id;
-        //1. 从 Redis 查询商铺缓存
-        String shopJson=   stringRedisTemplate.opsForValue().get(key);
-        //2. null和""都会被算作 blank
-        if(StrUtil.isBlank(shopJson)){
-            return null;
+    @Transactional
+    @Override
+    public Result update(Shop shop) {
+        Long id=shop.getId();
+        if(id==null){
+            return Result.fail("店铺id不能为空");
         }
-        //3. 命中，需要先把 JSON 反序列化为对象
-        RedisData redisData= JSONUtil.toBean(shopJson,RedisData.class);
-        JSONObject data= (JSONObject)redisData.getData();
-        Shop shop= JSONUtil.toBean(data, Shop.class);
-        LocalDateTime expireTime=redisData.getExpireTime();
-        //4. 判断是否过期
-        if(expireTime.isAfter(LocalDateTime.now())){
-            //4.1 没有过期，直接返回店铺信息
-            return shop;
+        //1. 更新数据库，update_time 交给数据库维护，变更订阅依赖它
+        shop.setUpdateTime(null);
+        updateById(shop);
+        // 修改了类型或坐标时更新类型索引和 GEO 集合
+        if (shop.getTypeId() != null || shop.getX() != null || shop.getY() != null) {
+            shopTypeIndex.put(getById(id));
         }
-        //5 已经过期，需要重建缓存。
-        String lockKey=LOCK_SHOP_KEY+id;
-        boolean isLock=tryLock(lockKey);
-        if(isLock) {
-            //获取lock 成功，则开启独立线程去实现缓存重建
-            CACHE_REBUILD_EXECUTOR.submit(()->{
-                try{
-                    this.saveShop2Redis(id, 20L);
-                }catch(Exception e){
-                    throw new RuntimeException(e);
-                }finally {
-                    unlock(lockKey);
-                }
-            });
+        //2. 开启了变更订阅时由它批量刷新缓存；否则删除缓存，同时通知各节点清除本地缓存
+        if (!shopChangeFeed.isEnabled()) {
+            cacheClient.invalidate(CACHE_SHOP_KEY + id);
+            shopChangeFeed.publish(Collections.singletonList(id));
         }
-        //返回旧缓存里的店铺信息
-        return shop;
+        return Result.ok();
+    }
+
+    public Shop queryWithMutex(Long id) {
+        //解决缓存击穿
+        return cacheClient
+                .queryWithMutex(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
     }
 
+    public void saveShop2Redis(Long id, Long expireSeconds) {
+        Shop shop=getById(id);
+        //封装逻辑过期时间，写入 Redis
+        cacheClient.setWithLogicalExpire(CACHE_SHOP_KEY + id, shop, expireSeconds, TimeUnit.SECONDS);
+    }
 
+    public Shop queryWithLogicalExpire(Long id) {
+        //逻辑过期解决缓存击穿
+        return cacheClient
+                .queryWithLogicalExpire(CACHE_SHOP_KEY, id, Shop.class, this::getById, 20L, TimeUnit.SECONDS);
+    }
 }
 
@@ -1,11 +1,25 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.crypto.digest.DigestUtil;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.ShopTypeSnapshot;
 import com.hmdp.entity.ShopType;
 import com.hmdp.mapper.ShopTypeMapper;
 import com.hmdp.service.IShopTypeService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.Resource;
+import java.util.Collections;
+import java.util.List;
+
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TYPE_VERSION_KEY;
+
 /**
  * <p>
  *  服务实现类
@@ -14,7 +28,87 @@ import org.springframework.stereotype.Service;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> implements IShopTypeService {
 
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private ObjectMapper objectMapper;
+
+    private volatile ShopTypeSnapshot snapshot;
+
+    @Override
+    public ShopTypeSnapshot getSnapshot() {
+        ShopTypeSnapshot current = snapshot;
+        if (current != null) {
+            return current;
+        }
+        synchronized (this) {
+            if (snapshot == null) {
+                snapshot = load(readVersion());
+            }
+            return snapshot;
+        }
+    }
+
+    /**
+     * 修改 tb_shop_type 后调用，各节点下次检查版本时重新加载
+     */
+    @Override
+    public long bumpVersion() {
+        Long version = stringRedisTemplate.opsForValue().increment(CACHE_SHOP_TYPE_VERSION_KEY);
+        checkVersion();
+        return version == null ? 0L : version;
+    }
+
+    /**
+     * 定时比对 Redis 中的版本号，只有版本变化时才重新查库
+     */
+    @Scheduled(fixedDelayString = "${hmdp.shop-type.version-check-millis:5000}")
+    public void checkVersion() {
+        ShopTypeSnapshot current = snapshot;
+        if (current == null) {
+            return;
+        }
+        long version;
+        try {
+            version = readVersion();
+        } catch (Exception e) {
+            // Redis 不可用时继续使用旧快照
+            log.warn("读取店铺类型版本号失败", e);
+            return;
+        }
+        if (version == current.getVersion()) {
+            return;
+        }
+        synchronized (this) {
+            if (snapshot.getVersion() != version) {
+                snapshot = load(version);
+                log.debug("店铺类型列表已重新加载，版本：{}", version);
+            }
+        }
+    }
+
+    private long readVersion() {
+        String version = stringRedisTemplate.opsForValue().get(CACHE_SHOP_TYPE_VERSION_KEY);
+        return version == null ? 0L : Long.parseLong(version);
+    }
+
+    /**
+     * 先读版本号再查库，查询期间版本号又变了的话下次检查会再加载一次
+     */
+    private ShopTypeSnapshot load(long version) {
+        List<ShopType> types = Collections.unmodifiableList(query().orderByAsc("sort").list());
+        byte[] body;
+        try {
+            body = objectMapper.writeValueAsBytes(Result.ok(types));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("店铺类型列表序列化失败", e);
+        }
+        // 用内容摘要作为 ETag，各节点加载的数据相同则 ETag 相同
+        String etag = "\"" + DigestUtil.md5Hex(body) + "\"";
+        return new ShopTypeSnapshot(version, types, body, etag);
+    }
 }
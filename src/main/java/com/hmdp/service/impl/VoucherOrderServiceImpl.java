@@ -1,32 +1,26 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.bean.BeanUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
-import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.SeckillRateLimiter;
+import com.hmdp.utils.SeckillStock;
 import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
-import org.redisson.api.RLock;
-import org.redisson.api.RedissonClient;
-import org.springframework.core.io.ClassPathResource;
-import org.springframework.data.redis.connection.stream.*;
 import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
-import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
-import java.time.Duration;
-import java.util.Collections;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Set;
+import java.util.TreeMap;
 
 /**
  * <p>
@@ -43,99 +37,15 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     @Resource
     private ISeckillVoucherService seckillVoucherService;
 
-    @Resource
-    private RedisIdWorker redisIdWorker;
-
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
     @Resource
-    private IVoucherOrderService proxy;  // 直接注入代理
-
+    private SeckillStock seckillStock;
 
     @Resource
-    private RedissonClient redissonClient;
-    private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
-    static{
-        SECKILL_SCRIPT = new DefaultRedisScript<>();
-        SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua"));
-        SECKILL_SCRIPT.setResultType(Long.class);
-    }
-
-
-    private static final ExecutorService SECKILL_ORDER_EXECUTOR= Executors.newSingleThreadExecutor();
-
-
-    @PostConstruct
-    private void init(){
-        SECKILL_ORDER_EXECUTOR.submit(new VoucherOrderHandler());
-    }
-    private class VoucherOrderHandler implements Runnable{
-        String queueName="stream.orders";
-        @Override
-        public void run() {
-            while(true){
-                try {
-                    //1. 获取消息队列中的订单信息
-                    //XREADGROUP GROUP g1 c1 COUNT 1 BLOCK 2000 STREAMS streams.order >
-                    List<MapRecord<String, Object, Object>> list=stringRedisTemplate.opsForStream().read(
-                    Consumer.from("g1", "c1"),
-                    StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2)),
-                    StreamOffset.create(queueName, ReadOffset.lastConsumed())
-                    );
-                    //2. 判断消息获取是否成功
-                    if(list ==null||list.isEmpty()){
-                        //2.1 如果获取失败，说明没有消息，继续下一次循环
-                        continue;
-                    }
-                    log.info("get an order from the queue, {}", list);
-                    //3. 如果获取成功，可以下单改数据库
-                    MapRecord<String, Object, Object> mapRecord=list.get(0);
-                    Map<Object, Object> values=mapRecord.getValue();
-                    VoucherOrder voucherOrder= BeanUtil.fillBeanWithMap(values, new VoucherOrder(), true);
-                    //4. 处理订单，往数据库里面加东西
-                    handleVoucherOrder(voucherOrder);
-                    //5. ACK。 SACK stream.orders g1 id
-                    stringRedisTemplate.opsForStream().acknowledge(queueName, "g1", mapRecord.getId());
-                } catch (Exception e) {
-                    log.info("处理异常订单", e);
-                    handlePendingList();
-                    throw new RuntimeException(e);
-                }
-            }
-        }
-
-        private void handlePendingList() {
-            while(true){
-                try {
-                    //1. 获取pending list中的订单信息
-                    //XREADGROUP GROUP g1 c1 COUNT 1 BLOCK 2000 STREAMS streams.order 0
-                    List<MapRecord<String, Object, Object>> list=stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),
-                            StreamReadOptions.empty().count(1),
-                            StreamOffset.create(queueName, ReadOffset.from("0"))
+    private SeckillRateLimiter seckillRateLimiter;
 
-                    );
-                    //2. 判断消息获取是否成功
-                    if(list ==null||list.isEmpty()){
-                        //2.1 如果获取失败，说明没有消息，继续下一次循环
-                        continue;
-                    }
-                    //3. 如果获取成功，可以下单改数据库
-                    MapRecord<String, Object, Object> mapRecord=list.get(0);
-                    Map<Object, Object> values=mapRecord.getValue();
-                    VoucherOrder voucherOrder= BeanUtil.fillBeanWithMap(values, new VoucherOrder(), true);
-                    //4. 处理订单，往数据库里面加东西
-                    handleVoucherOrder(voucherOrder);
-                    //5. ACK。 SACK stream.orders g1 id
-                    stringRedisTemplate.opsForStream().acknowledge(queueName, "g1", mapRecord.getId());
-                } catch (Exception e) {
-                    log.info("处理异常订单", e);
-                    throw new RuntimeException(e);
-                }
-            }
-        }
-    }
 
 //    private class VoucherOrderHandler implements Runnable{
 //        @Override
@@ -153,37 +63,39 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
 //        }
 //    }
 
-    private void handleVoucherOrder(VoucherOrder voucherOrder) {
-        Long userId=voucherOrder.getUserId();
-        //这里加个锁。预防多 JVM 情况下，来自同一用户的同一时间的多个请求，分别占用了不同 JVM 的 synchronized 锁。
-        //SimpleRedisLock lock=new SimpleRedisLock("order:"+userId, stringRedisTemplate);
-        RLock lock=redissonClient.getLock("lock:order:"+userId);
-        boolean isLock=lock.tryLock();
-        if(!isLock){
-            return;
-        }
-        try{
-            proxy.createVoucherOrder(voucherOrder);
-        }finally{
-            lock.unlock();
-        }
-    }
     @Override
     public Result seckillVoucher(Long voucherId) {
+        //0. 已售罄直接返回；没售罄先拿令牌，超出限流时抛出异常返回 429，不再执行脚本
+        if(seckillStock.isSoldOut(voucherId)){
+            return Result.fail("库存不足");
+        }
+        seckillRateLimiter.acquire(voucherId);
        //1. lua script
         Long userId=UserHolder.getUser().getId();
-        long orderId=redisIdWorker.nextId("order");
-        Long result=stringRedisTemplate.execute(SECKILL_SCRIPT,
-                Collections.emptyList(),
-                voucherId.toString(), userId.toString(), String.valueOf(orderId));
+        //同一用户同一张券的订单写入同一个分区，保证按顺序处理；开启库存分片时在各分片上扣减
+        //有购买资格后才在脚本里生成订单 id，本地已知售罄时不访问 Redis
+        SeckillStock.Outcome outcome=seckillStock.tryAcquire(voucherId, userId);
+        int r=outcome.getCode();
 
         //2. check if 拥有购买资格: 如果拥有，把信息发送到消息队列
-        int r=result.intValue();
         //2.1 没有资格
-        if(r!=0){
-            return Result.fail(r==1?"库存不足":"不能重复下单");
+        if(r!=SeckillStock.SUCCESS){
+            return Result.fail(failMessage(r));
+        }
+        return Result.ok(outcome.getOrderId());
+    }
+
+    private static String failMessage(int code){
+        switch (code){
+            case SeckillStock.SOLD_OUT:
+                return "库存不足";
+            case SeckillStock.NOT_STARTED:
+                return "秒杀尚未开始";
+            case SeckillStock.ENDED:
+                return "秒杀已经结束";
+            default:
+                return "不能重复下单";
         }
-        return Result.ok(orderId);
     }
 //
 //        @Override
@@ -212,13 +124,17 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
 //        //2. 返回订单 id
 //        return Result.ok(orderId);
 //    }
+    /**
+     * @return 订单已存在或创建成功返回 true，数据库库存不足返回 false
+     */
     @Transactional
-    public void createVoucherOrder(VoucherOrder voucherOrder) {
+    public boolean createVoucherOrder(VoucherOrder voucherOrder) {
         Long userId=voucherOrder.getUserId();
         int count=query().eq("user_id",userId).eq("voucher_id", voucherOrder.getVoucherId()).count();
 
+        //同一条消息重复处理时订单已经存在
         if(count>0){
-            return;
+            return true;
         }
         //扣减库存
         boolean success= seckillVoucherService.update().setSql("stock=stock-1")
@@ -227,9 +143,74 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
                 .update();
         if(!success){
             log.info("库存不足");
-            return;
+            return false;
         }
         save(voucherOrder);
+        return true;
+    }
+
+    /**
+     * 批量创建订单：一次查询去重，每张券一条扣库存的 UPDATE，一条多行 INSERT
+     * @return 数据库库存不足没有创建的订单，已存在的订单不算
+     */
+    @Transactional
+    @Override
+    public List<VoucherOrder> createVoucherOrders(List<VoucherOrder> voucherOrders) {
+        List<VoucherOrder> failed = new ArrayList<>();
+        if (voucherOrders.isEmpty()) {
+            return failed;
+        }
+        //1. 一次查出这批用户已有的订单，连同批次内的重复一起去掉
+        Set<Long> userIds = new HashSet<>();
+        Set<Long> voucherIds = new HashSet<>();
+        for (VoucherOrder order : voucherOrders) {
+            userIds.add(order.getUserId());
+            voucherIds.add(order.getVoucherId());
+        }
+        Set<String> ordered = new HashSet<>();
+        for (VoucherOrder exist : query().select("user_id", "voucher_id")
+                .in("user_id", userIds).in("voucher_id", voucherIds).list()) {
+            ordered.add(exist.getUserId() + ":" + exist.getVoucherId());
+        }
+        //按券 id 排序扣库存，多个消费者并发处理时按相同顺序锁行，避免死锁
+        Map<Long, List<VoucherOrder>> byVoucher = new TreeMap<>();
+        for (VoucherOrder order : voucherOrders) {
+            if (ordered.add(order.getUserId() + ":" + order.getVoucherId())) {
+                byVoucher.computeIfAbsent(order.getVoucherId(), id -> new ArrayList<>()).add(order);
+            }
+        }
+        //2. 每张券一次扣减这批订单的数量
+        List<VoucherOrder> toSave = new ArrayList<>();
+        for (Map.Entry<Long, List<VoucherOrder>> entry : byVoucher.entrySet()) {
+            int n = entry.getValue().size();
+            boolean success = seckillVoucherService.update().setSql("stock=stock-" + n)
+                    .eq("voucher_id", entry.getKey())
+                    .ge("stock", n)
+                    .update();
+            if (success) {
+                toSave.addAll(entry.getValue());
+                continue;
+            }
+            //2.1 库存不够整批扣减，逐单扣减，能扣几单是几单
+            List<VoucherOrder> orders = entry.getValue();
+            for (int i = 0; i < orders.size(); i++) {
+                boolean one = seckillVoucherService.update().setSql("stock=stock-1")
+                        .eq("voucher_id", entry.getKey())
+                        .gt("stock", 0)
+                        .update();
+                if (!one) {
+                    log.info("库存不足, voucherId={}", entry.getKey());
+                    failed.addAll(orders.subList(i, orders.size()));
+                    break;
+                }
+                toSave.add(orders.get(i));
+            }
+        }
+        //3. 多行 INSERT
+        if (!toSave.isEmpty()) {
+            baseMapper.insertBatch(toSave);
+        }
+        return failed;
     }
     //    @Override
 //    public Result seckillVoucher(Long voucherId) {
@@ -7,14 +7,13 @@ import com.hmdp.entity.Voucher;
 import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
-import org.springframework.data.redis.core.StringRedisTemplate;
+import com.hmdp.utils.SeckillStock;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.Resource;
 import java.util.List;
 
-import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
 
 /**
  * <p>
@@ -30,7 +29,7 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     @Resource
     private ISeckillVoucherService seckillVoucherService;
     @Resource
-    private StringRedisTemplate stringRedisTemplate;
+    private SeckillStock seckillStock;
 
     @Override
     public Result queryVoucherOfShop(Long shopId) {
@@ -52,7 +51,29 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setBeginTime(voucher.getBeginTime());
         seckillVoucher.setEndTime(voucher.getEndTime());
         seckillVoucherService.save(seckillVoucher);
-        //把库存保存到redis中
-        stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY+voucher.getId(), voucher.getStock().toString());
+        //把库存保存到redis中，库存大时拆成多个分片
+        seckillStock.init(voucher.getId(), voucher.getStock());
+        //发布秒杀时间窗口，秒杀脚本据此拒绝窗口外的请求
+        seckillStock.publish(seckillVoucher);
+    }
+
+    @Override
+    @Transactional
+    public Result addSeckillStock(Long voucherId, Integer amount) {
+        // 1.校验数量
+        if (amount == null || amount <= 0) {
+            return Result.fail("库存数量必须大于0");
+        }
+        // 2.增加数据库库存
+        boolean success = seckillVoucherService.update().setSql("stock=stock+" + amount)
+                .eq("voucher_id", voucherId)
+                .update();
+        if (!success) {
+            // 秒杀券不存在，不能动 Redis 库存
+            return Result.fail("秒杀券不存在");
+        }
+        // 3.增加 Redis 库存，并清除各节点的售罄标记
+        seckillStock.addStock(voucherId, amount);
+        return Result.ok();
     }
 }
@@ -0,0 +1,89 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.ZipUtil;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+/**
+ * 紧凑的二进制格式：
+ * <pre>
+ * | magic(1) | flags(1) | expireAt(8) | rebuildMillis(4) | payload |
+ * </pre>
+ * payload 为 Smile（二进制 JSON）编码，超过阈值时用 zlib 压缩；逻辑过期时间直接存 epoch 毫秒。
+ * 没有 rebuildMillis 字段的旧版本（MAGIC_V1）仍可读取，第一个字节不是 magic 的数据按旧的 JSON 格式解码
+ */
+public class BinaryCacheCodec implements CacheCodec {
+
+    private static final byte MAGIC_V1 = (byte) 0xCA;
+    private static final byte MAGIC = (byte) 0xCB;
+    private static final byte FLAG_COMPRESSED = 1;
+    private static final int HEADER_SIZE_V1 = 10;
+    private static final int HEADER_SIZE = 14;
+
+    private final ObjectMapper mapper = new ObjectMapper(new SmileFactory())
+            .registerModule(new JavaTimeModule())
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private final JsonCacheCodec legacyCodec = new JsonCacheCodec();
+
+    // 超过该字节数的 payload 才压缩，<=0 表示不压缩
+    private final int compressThreshold;
+
+    public BinaryCacheCodec(int compressThreshold) {
+        this.compressThreshold = compressThreshold;
+    }
+
+    @Override
+    public byte[] encode(Object value, long expireAt, long rebuildMillis) {
+        byte[] payload;
+        try {
+            payload = mapper.writeValueAsBytes(value);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        byte flags = 0;
+        if (compressThreshold > 0 && payload.length > compressThreshold) {
+            payload = ZipUtil.zlib(payload, Deflater.BEST_SPEED);
+            flags |= FLAG_COMPRESSED;
+        }
+        return ByteBuffer.allocate(HEADER_SIZE + payload.length)
+                .put(MAGIC)
+                .put(flags)
+                .putLong(expireAt)
+                .putInt((int) Math.min(rebuildMillis, Integer.MAX_VALUE))
+                .put(payload)
+                .array();
+    }
+
+    @Override
+    public <R> CacheEntry<R> decode(byte[] bytes, Class<R> type) {
+        if (bytes[0] != MAGIC && bytes[0] != MAGIC_V1) {
+            return legacyCodec.decode(bytes, type);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        boolean v1 = buffer.get() == MAGIC_V1;
+        byte flags = buffer.get();
+        long expireAt = buffer.getLong();
+        int rebuildMillis = v1 ? 0 : buffer.getInt();
+        int headerSize = v1 ? HEADER_SIZE_V1 : HEADER_SIZE;
+        try {
+            R value;
+            if ((flags & FLAG_COMPRESSED) != 0) {
+                byte[] payload = ZipUtil.unZlib(Arrays.copyOfRange(bytes, headerSize, bytes.length));
+                value = mapper.readValue(payload, type);
+            } else {
+                value = mapper.readValue(bytes, headerSize, bytes.length - headerSize, type);
+            }
+            return new CacheEntry<>(value, expireAt, rebuildMillis);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
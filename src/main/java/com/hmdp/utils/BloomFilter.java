@@ -0,0 +1,102 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 基于位数组的布隆过滤器，元素为 long 型 id，支持并发写入
+ */
+public class BloomFilter {
+
+    private final AtomicLongArray bits;
+    private final long bitSize;
+    private final int numHashes;
+    private final LongAdder insertions = new LongAdder();
+
+    /**
+     * @param expectedInsertions 预计元素个数
+     * @param fpp 期望的误判率
+     * @param maxBytes 位数组最大占用内存，超出时按该上限分配（误判率会相应升高）
+     */
+    public BloomFilter(long expectedInsertions, double fpp, long maxBytes) {
+        long n = Math.max(1, expectedInsertions);
+        long m = (long) (-n * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        m = Math.max(64, Math.min(m, maxBytes * 8));
+        int words = (int) ((m + 63) / 64);
+        this.bits = new AtomicLongArray(words);
+        this.bitSize = (long) words * 64;
+        this.numHashes = Math.max(1, (int) Math.round((double) bitSize / n * Math.log(2)));
+    }
+
+    /**
+     * @return 是否有位被改变；已经加入过的 id 不会改变任何位，也不计入插入数
+     */
+    public boolean put(long id) {
+        long h1 = mix(id);
+        long h2 = mix(h1 ^ 0x9E3779B97F4A7C15L);
+        boolean changed = false;
+        for (int i = 0; i < numHashes; i++) {
+            long index = ((h1 + i * h2) & Long.MAX_VALUE) % bitSize;
+            changed |= setBit(index);
+        }
+        if (changed) {
+            insertions.increment();
+        }
+        return changed;
+    }
+
+    public boolean mightContain(long id) {
+        long h1 = mix(id);
+        long h2 = mix(h1 ^ 0x9E3779B97F4A7C15L);
+        for (int i = 0; i < numHashes; i++) {
+            long index = ((h1 + i * h2) & Long.MAX_VALUE) % bitSize;
+            if ((bits.get((int) (index >>> 6)) & (1L << index)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 按当前插入量估算的误判率
+     */
+    public double expectedFpp() {
+        double n = insertions.sum();
+        return Math.pow(1 - Math.exp(-numHashes * n / bitSize), numHashes);
+    }
+
+    public long getBitSize() {
+        return bitSize;
+    }
+
+    public int getNumHashes() {
+        return numHashes;
+    }
+
+    public long getInsertions() {
+        return insertions.sum();
+    }
+
+    private boolean setBit(long index) {
+        int word = (int) (index >>> 6);
+        long mask = 1L << index;
+        long old;
+        do {
+            old = bits.get(word);
+            if ((old & mask) != 0) {
+                return false;
+            }
+        } while (!bits.compareAndSet(word, old, old | mask));
+        return true;
+    }
+
+    // murmur3 的 64 位 finalizer
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
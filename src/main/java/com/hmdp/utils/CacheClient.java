@@ -1,19 +1,32 @@
 package com.hmdp.utils;
 
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import cn.hutool.cache.impl.TimedCache;
 import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
 import org.springframework.stereotype.Component;
 
-import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
+import java.util.function.Predicate;
 
+import static com.hmdp.utils.RedisConstants.CACHE_INVALIDATE_CHANNEL;
 import static com.hmdp.utils.RedisConstants.CACHE_NULL_TTL;
 import static com.hmdp.utils.RedisConstants.LOCK_SHOP_KEY;
 
@@ -23,149 +36,570 @@ public class CacheClient {
 
     private final StringRedisTemplate stringRedisTemplate;
 
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    private final CacheCodec cacheCodec;
 
-    public CacheClient(StringRedisTemplate stringRedisTemplate) {
+    private final CacheMetrics cacheMetrics;
+
+    private final HotKeyDetector hotKeyDetector;
+
+    private final CacheRebuildExecutor rebuildExecutor;
+
+    // 本地缓存中代表"数据库中不存在"的占位条目
+    private static final CacheEntry<Object> NULL_ENTRY = new CacheEntry<>(null, 0);
+
+    @Value("${hmdp.cache.local.enabled:false}")
+    private boolean localEnabled;
+    @Value("${hmdp.cache.local.max-size:10000}")
+    private int localMaxSize;
+    @Value("${hmdp.cache.local.ttl-seconds:30}")
+    private long localTtlSeconds;
+
+    @Value("${hmdp.cache.early-refresh.enabled:false}")
+    private boolean earlyRefreshEnabled;
+    // 越大越倾向于提前刷新
+    @Value("${hmdp.cache.early-refresh.beta:1.0}")
+    private double earlyRefreshBeta;
+
+    // 热点 key 本地副本的有效期
+    @Value("${hmdp.cache.hot-key.local-ttl-millis:2000}")
+    private long hotKeyLocalTtlMillis;
+
+    // 一级缓存（进程内），未开启时为 null。各种查询方式共用同一个 key，所以统一保存 CacheEntry，
+    // 逻辑过期的查询按其中的过期时间判断，其他查询只取 value
+    private LRUCache<String, CacheEntry<?>> localCache;
+
+    // 热点 key 的本地副本，不受一级缓存开关影响，同样保存 CacheEntry
+    private TimedCache<String, CacheEntry<?>> hotCache;
+
+    private final SingleFlight singleFlight = new SingleFlight();
+
+    // 按 key 前缀注册的 id 过滤器（如布隆过滤器），返回 false 表示 id 一定不存在
+    private final Map<String, Predicate<Object>> idFilters = new ConcurrentHashMap<>();
+
+    // 锁被其他节点持有时的等待间隔与次数，总时长与锁的过期时间一致
+    private static final long MUTEX_RETRY_INTERVAL_MILLIS = 50;
+    private static final int MUTEX_MAX_RETRIES = 200;
+
+    // Redis 中的空值，代表数据库中不存在
+    private static final byte[] EMPTY = new byte[0];
+
+    public CacheClient(StringRedisTemplate stringRedisTemplate, CacheCodec cacheCodec, CacheMetrics cacheMetrics,
+                       HotKeyDetector hotKeyDetector, CacheRebuildExecutor rebuildExecutor) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.cacheCodec = cacheCodec;
+        this.cacheMetrics = cacheMetrics;
+        this.hotKeyDetector = hotKeyDetector;
+        this.rebuildExecutor = rebuildExecutor;
+    }
+
+    @PostConstruct
+    private void init() {
+        if (localEnabled) {
+            localCache = CacheUtil.newLRUCache(localMaxSize, TimeUnit.SECONDS.toMillis(localTtlSeconds));
+        }
+        if (hotKeyDetector.isEnabled()) {
+            hotCache = CacheUtil.newTimedCache(hotKeyLocalTtlMillis);
+            hotCache.schedulePrune(hotKeyLocalTtlMillis);
+        }
     }
 
     public void set(String key, Object value, Long time, TimeUnit unit) {
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value), time, unit);
+        setRaw(key, encode(value, 0, 0, cacheMetrics.statsOfKey(key)), time, unit);
     }
 
     public void setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit) {
-        // 设置逻辑过期
-        RedisData redisData = new RedisData();
-        redisData.setData(value);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(time)));
-        // 写入Redis
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(redisData));
+        setWithLogicalExpire(key, value, time, unit, 0);
+    }
+
+    /**
+     * 用一个 pipeline 批量写入带 TTL 的数据，格式与 queryWithPassThrough 回写的一致
+     * @param values key -> 要缓存的对象
+     */
+    public void setBatch(Map<String, ?> values, Long time, TimeUnit unit) {
+        setBatch(values, time, unit, 0);
+    }
+
+    /**
+     * @param jitter 每个 key 的 TTL 在 time 的 ±jitter 比例内随机，一批写入的 key 不会在同一时刻过期
+     */
+    public void setBatch(Map<String, ?> values, Long time, TimeUnit unit, double jitter) {
+        Map<byte[], byte[]> raws = new HashMap<>(values.size() * 2);
+        for (Map.Entry<String, ?> entry : values.entrySet()) {
+            CacheStats stats = cacheMetrics.statsOfKey(entry.getKey());
+            raws.put(entry.getKey().getBytes(StandardCharsets.UTF_8), encode(entry.getValue(), 0, 0, stats));
+        }
+        long ttlMillis = unit.toMillis(time);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Map.Entry<byte[], byte[]> entry : raws.entrySet()) {
+                long ttl = jitter > 0
+                        ? (long) (ttlMillis * (1 + ThreadLocalRandom.current().nextDouble(-jitter, jitter)))
+                        : ttlMillis;
+                connection.set(entry.getKey(), entry.getValue(), Expiration.milliseconds(Math.max(ttl, 1)),
+                        RedisStringCommands.SetOption.upsert());
+            }
+            return null;
+        });
+    }
+
+    /**
+     * @param rebuildMillis 本次重建（查库）耗时，随数据一起保存，用于提前刷新的概率计算
+     */
+    private void setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit, long rebuildMillis) {
+        // 设置逻辑过期，写入Redis
+        long expireAt = System.currentTimeMillis() + unit.toMillis(time);
+        setRaw(key, encode(value, expireAt, rebuildMillis, cacheMetrics.statsOfKey(key)), null, null);
+    }
+
+    /**
+     * 删除缓存，并通知所有节点清除本地缓存
+     */
+    public void invalidate(String key) {
+        stringRedisTemplate.delete(key);
+        evictLocal(key);
+        stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL, key);
+    }
+
+    /**
+     * 只清除本节点的本地缓存
+     */
+    public void evictLocal(String key) {
+        if (localCache != null) {
+            localCache.remove(key);
+        }
+        if (hotCache != null) {
+            hotCache.remove(key);
+        }
+    }
+
+    public void registerIdFilter(String keyPrefix, Predicate<Object> filter) {
+        idFilters.put(keyPrefix, filter);
     }
 
     public <R,ID> R queryWithPassThrough(
             String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit){
+        CacheStats stats = cacheMetrics.stats(keyPrefix);
+        if (rejectedByFilter(keyPrefix, id, stats)) {
+            return null;
+        }
         String key = keyPrefix + id;
+        // 0.先查本地缓存
+        CacheEntry<?> local = getLocal(key, stats);
+        if (local != null) {
+            return type.cast(local.getValue());
+        }
         // 1.从redis查询商铺缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
+        byte[] raw = getRaw(key);
         // 2.判断是否存在
-        if (StrUtil.isNotBlank(json)) {
+        if (raw != null && raw.length > 0) {
             // 3.存在，直接返回
-            return JSONUtil.toBean(json, type);
+            stats.recordRedisHit();
+            CacheEntry<R> entry = decode(raw, type, stats);
+            putLocal(key, entry);
+            return entry.getValue();
         }
         // 判断命中的是否是空值
-        if (json != null) {
+        if (raw != null) {
             // 返回一个错误信息
+            stats.recordRedisNullHit();
+            putLocal(key, NULL_ENTRY);
             return null;
         }
+        stats.recordRedisMiss();
 
         // 4.不存在，根据id查询数据库
-        R r = dbFallback.apply(id);
+        R r = loadFromDb(id, dbFallback, stats);
         // 5.不存在，返回错误
         if (r == null) {
             // 将空值写入redis
-            stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+            setRaw(key, EMPTY, CACHE_NULL_TTL, TimeUnit.MINUTES);
             // 返回错误信息
             return null;
         }
         // 6.存在，写入redis
-        this.set(key, r, time, unit);
+        setRaw(key, encode(r, 0, 0, stats), time, unit);
+        putLocal(key, new CacheEntry<>(r, 0));
         return r;
     }
 
+    /**
+     * queryWithPassThrough 的批量版本：一次 MGET 查 Redis，未命中的 id 一次性查库，再用一个 pipeline 回写
+     * @param ids 要查询的 id，返回结果与其顺序一致，不存在的 id 被跳过
+     * @param dbFallback 根据一批 id 查询数据库，例如 listByIds
+     * @param idGetter 从查到的对象中取出 id，用于和请求的 id 对应
+     */
+    public <R, ID> List<R> queryBatchWithPassThrough(
+            String keyPrefix, Collection<ID> ids, Class<R> type, Function<Collection<ID>, List<R>> dbFallback,
+            Function<R, ID> idGetter, Long time, TimeUnit unit) {
+        CacheStats stats = cacheMetrics.stats(keyPrefix);
+        List<ID> idList = new ArrayList<>(new LinkedHashSet<>(ids));
+        Map<ID, R> found = new HashMap<>(idList.size() * 2);
+        // 1.先查本地缓存，剩下的才去 Redis
+        List<ID> remoteIds = new ArrayList<>();
+        for (ID id : idList) {
+            if (rejectedByFilter(keyPrefix, id, stats)) {
+                continue;
+            }
+            CacheEntry<?> local = getLocal(keyPrefix + id, stats);
+            if (local == null) {
+                remoteIds.add(id);
+            } else if (local.getValue() != null) {
+                found.put(id, type.cast(local.getValue()));
+            }
+        }
+        // 2.MGET 批量查询 Redis
+        List<ID> missIds = new ArrayList<>();
+        if (!remoteIds.isEmpty()) {
+            List<String> keys = new ArrayList<>(remoteIds.size());
+            for (ID id : remoteIds) {
+                keys.add(keyPrefix + id);
+            }
+            List<byte[]> raws = multiGetRaw(keys);
+            for (int i = 0; i < remoteIds.size(); i++) {
+                ID id = remoteIds.get(i);
+                byte[] raw = raws == null ? null : raws.get(i);
+                if (raw != null && raw.length > 0) {
+                    stats.recordRedisHit();
+                    CacheEntry<R> entry = decode(raw, type, stats);
+                    found.put(id, entry.getValue());
+                    putLocal(keys.get(i), entry);
+                } else if (raw != null) {
+                    // 命中空值
+                    stats.recordRedisNullHit();
+                    putLocal(keys.get(i), NULL_ENTRY);
+                } else {
+                    stats.recordRedisMiss();
+                    missIds.add(id);
+                }
+            }
+        }
+        // 3.未命中的 id 一次性查数据库，并用 pipeline 回写 Redis
+        if (!missIds.isEmpty()) {
+            long begin = System.nanoTime();
+            List<R> loaded = dbFallback.apply(missIds);
+            stats.recordDbFallback(System.nanoTime() - begin);
+            Map<ID, R> loadedMap = new HashMap<>(missIds.size() * 2);
+            if (loaded != null) {
+                for (R r : loaded) {
+                    loadedMap.put(idGetter.apply(r), r);
+                }
+            }
+            Map<ID, byte[]> encoded = new HashMap<>(loadedMap.size() * 2);
+            for (Map.Entry<ID, R> entry : loadedMap.entrySet()) {
+                encoded.put(entry.getKey(), encode(entry.getValue(), 0, 0, stats));
+            }
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (ID id : missIds) {
+                    byte[] rawKey = (keyPrefix + id).getBytes(StandardCharsets.UTF_8);
+                    byte[] value = encoded.get(id);
+                    if (value == null) {
+                        // 不存在的 id 写入空值，防止缓存穿透
+                        connection.set(rawKey, EMPTY, Expiration.from(CACHE_NULL_TTL, TimeUnit.MINUTES),
+                                RedisStringCommands.SetOption.upsert());
+                    } else {
+                        connection.set(rawKey, value, Expiration.from(time, unit),
+                                RedisStringCommands.SetOption.upsert());
+                    }
+                }
+                return null;
+            });
+            for (Map.Entry<ID, R> entry : loadedMap.entrySet()) {
+                found.put(entry.getKey(), entry.getValue());
+                putLocal(keyPrefix + entry.getKey(), new CacheEntry<>(entry.getValue(), 0));
+            }
+        }
+        // 4.按请求的顺序组装结果
+        List<R> result = new ArrayList<>(found.size());
+        for (ID id : idList) {
+            R r = found.get(id);
+            if (r != null) {
+                result.add(r);
+            }
+        }
+        return result;
+    }
+
     public <R, ID> R queryWithLogicalExpire(
             String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        CacheStats stats = cacheMetrics.stats(keyPrefix);
+        if (rejectedByFilter(keyPrefix, id, stats)) {
+            return null;
+        }
         String key = keyPrefix + id;
+        // 0.本地缓存中保存的是带逻辑过期时间的数据，未过期才直接返回
+        CacheEntry<?> local = getLocal(key, stats);
+        if (local != null) {
+            if (!local.isExpired(System.currentTimeMillis())) {
+                if (shouldRefreshEarly(local)) {
+                    rebuildAsync(keyPrefix, key, id, dbFallback, time, unit, stats);
+                }
+                return type.cast(local.getValue());
+            }
+            // 本地副本已逻辑过期，回到 Redis 看是否已被其他节点重建
+            evictLocal(key);
+        }
         // 1.从redis查询商铺缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
+        byte[] raw = getRaw(key);
         // 2.判断是否存在
-        if (StrUtil.isBlank(json)) {
+        if (raw == null || raw.length == 0) {
             // 3.存在，直接返回
+            stats.recordRedisMiss();
             return null;
         }
-        // 4.命中，需要先把json反序列化为对象
-        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
-        R r = JSONUtil.toBean((JSONObject) redisData.getData(), type);
-        LocalDateTime expireTime = redisData.getExpireTime();
+        stats.recordRedisHit();
+        // 4.命中，解码出数据和逻辑过期时间
+        CacheEntry<R> entry = decode(raw, type, stats);
+        R r = entry.getValue();
         // 5.判断是否过期
-        if(expireTime.isAfter(LocalDateTime.now())) {
-            // 5.1.未过期，直接返回店铺信息
+        if (!entry.isExpired(System.currentTimeMillis())) {
+            // 5.1.未过期，直接返回店铺信息；快到期时按概率提前刷新
+            putLocal(key, entry);
+            if (shouldRefreshEarly(entry)) {
+                rebuildAsync(keyPrefix, key, id, dbFallback, time, unit, stats);
+            }
             return r;
         }
         // 5.2.已过期，需要缓存重建
-        // 6.缓存重建
+        rebuildAsync(keyPrefix, key, id, dbFallback, time, unit, stats);
+        // 6.4.返回过期的商铺信息
+        return r;
+    }
+
+    /**
+     * 提前刷新（XFetch）：now - rebuildMillis * beta * ln(random) >= expireAt 时刷新。
+     * 重建越慢、离过期越近，刷新的概率越大，热点 key 会在过期前被某个请求平滑地刷新掉
+     */
+    private boolean shouldRefreshEarly(CacheEntry<?> entry) {
+        if (!earlyRefreshEnabled || entry.getExpireAt() <= 0 || entry.getRebuildMillis() <= 0) {
+            return false;
+        }
+        double random = ThreadLocalRandom.current().nextDouble();
+        double gap = -entry.getRebuildMillis() * earlyRefreshBeta * Math.log(random);
+        return System.currentTimeMillis() + gap >= entry.getExpireAt();
+    }
+
+    private <R, ID> void rebuildAsync(String keyPrefix, String key, ID id, Function<ID, R> dbFallback,
+                                      Long time, TimeUnit unit, CacheStats stats) {
+        // 6.缓存重建，本节点已经在重建的 key 不再去抢锁
+        if (rebuildExecutor.isInFlight(key)) {
+            return;
+        }
         // 6.1.获取互斥锁
         String lockKey = LOCK_SHOP_KEY + id;
         boolean isLock = tryLock(lockKey);
         // 6.2.判断是否获取锁成功
-        if (isLock){
-            // 6.3.成功，开启独立线程，实现缓存重建
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
-                try {
-                    // 查询数据库
-                    R newR = dbFallback.apply(id);
-                    // 重建缓存
-                    this.setWithLogicalExpire(key, newR, time, unit);
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                }finally {
-                    // 释放锁
-                    unlock(lockKey);
-                }
-            });
+        if (!isLock) {
+            stats.recordLockContention();
+            return;
+        }
+        // 6.3.成功，提交到共享的重建线程池
+        boolean submitted = rebuildExecutor.submit(keyPrefix, key, () -> {
+            try {
+                // 查询数据库，记录重建耗时
+                long begin = System.currentTimeMillis();
+                R newR = loadFromDb(id, dbFallback, stats);
+                long rebuildMillis = System.currentTimeMillis() - begin;
+                // 重建缓存
+                this.setWithLogicalExpire(key, newR, time, unit, rebuildMillis);
+                evictLocal(key);
+            } finally {
+                // 释放锁
+                unlock(lockKey);
+            }
+        });
+        if (submitted) {
+            stats.recordRebuildSubmitted();
+        } else {
+            // 没有被接受（重复或队列已满），释放锁，继续返回旧数据
+            unlock(lockKey);
         }
-        // 6.4.返回过期的商铺信息
-        return r;
     }
 
     public <R, ID> R queryWithMutex(
             String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        CacheStats stats = cacheMetrics.stats(keyPrefix);
+        if (rejectedByFilter(keyPrefix, id, stats)) {
+            return null;
+        }
         String key = keyPrefix + id;
+        // 0.先查本地缓存
+        CacheEntry<?> local = getLocal(key, stats);
+        if (local != null) {
+            return type.cast(local.getValue());
+        }
         // 1.从redis查询商铺缓存
-        String shopJson = stringRedisTemplate.opsForValue().get(key);
+        byte[] raw = getRaw(key);
         // 2.判断是否存在
-        if (StrUtil.isNotBlank(shopJson)) {
+        if (raw != null && raw.length > 0) {
             // 3.存在，直接返回
-            return JSONUtil.toBean(shopJson, type);
+            stats.recordRedisHit();
+            CacheEntry<R> entry = decode(raw, type, stats);
+            putLocal(key, entry);
+            return entry.getValue();
         }
         // 判断命中的是否是空值
-        if (shopJson != null) {
+        if (raw != null) {
             // 返回一个错误信息
+            stats.recordRedisNullHit();
+            putLocal(key, NULL_ENTRY);
             return null;
         }
+        stats.recordRedisMiss();
 
-        // 4.实现缓存重建
+        // 4.实现缓存重建，本 JVM 内同一个 key 只有一个线程去抢锁、查库，其余线程等待它的结果
+        return singleFlight.execute(key, () -> rebuildWithMutex(key, id, type, dbFallback, time, unit, stats));
+    }
+
+    private <R, ID> R rebuildWithMutex(String key, ID id, Class<R> type, Function<ID, R> dbFallback,
+                                       Long time, TimeUnit unit, CacheStats stats) {
         // 4.1.获取互斥锁
         String lockKey = LOCK_SHOP_KEY + id;
-        R r = null;
         try {
-            boolean isLock = tryLock(lockKey);
-            // 4.2.判断是否获取成功
-            if (!isLock) {
-                // 4.3.获取锁失败，休眠并重试
-                Thread.sleep(50);
-                return queryWithMutex(keyPrefix, id, type, dbFallback, time, unit);
-            }
-            // 4.4.获取锁成功，根据id查询数据库
-            r = dbFallback.apply(id);
-            // 5.不存在，返回错误
-            if (r == null) {
-                // 将空值写入redis
-                stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
-                // 返回错误信息
-                return null;
+            for (int i = 0; i < MUTEX_MAX_RETRIES; i++) {
+                boolean isLock = tryLock(lockKey);
+                if (isLock) {
+                    stats.recordRebuildSubmitted();
+                    try {
+                        return loadAndCache(key, id, type, dbFallback, time, unit, stats);
+                    } finally {
+                        // 7.释放锁
+                        unlock(lockKey);
+                    }
+                }
+                // 4.2.锁被其他节点持有，等待后看它是否已经写好缓存
+                stats.recordLockContention();
+                Thread.sleep(MUTEX_RETRY_INTERVAL_MILLIS);
+                byte[] raw = getRaw(key);
+                if (raw != null && raw.length > 0) {
+                    CacheEntry<R> entry = decode(raw, type, stats);
+                    putLocal(key, entry);
+                    return entry.getValue();
+                }
+                if (raw != null) {
+                    putLocal(key, NULL_ENTRY);
+                    return null;
+                }
             }
-            // 6.存在，写入redis
-            this.set(key, r, time, unit);
         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             throw new RuntimeException(e);
-        }finally {
-            // 7.释放锁
-            unlock(lockKey);
         }
-        // 8.返回
+        // 长时间拿不到锁，直接查库返回，不再写缓存
+        log.warn("等待缓存重建超时, key={}", key);
+        return loadFromDb(id, dbFallback, stats);
+    }
+
+    private <R, ID> R loadAndCache(String key, ID id, Class<R> type, Function<ID, R> dbFallback,
+                                   Long time, TimeUnit unit, CacheStats stats) {
+        // 4.3.拿到锁后再检查一次，可能其他节点刚刚重建完
+        byte[] raw = getRaw(key);
+        if (raw != null && raw.length > 0) {
+            CacheEntry<R> entry = decode(raw, type, stats);
+            putLocal(key, entry);
+            return entry.getValue();
+        }
+        if (raw != null) {
+            putLocal(key, NULL_ENTRY);
+            return null;
+        }
+        // 4.4.根据id查询数据库
+        R r = loadFromDb(id, dbFallback, stats);
+        // 5.不存在，返回错误
+        if (r == null) {
+            // 将空值写入redis
+            setRaw(key, EMPTY, CACHE_NULL_TTL, TimeUnit.MINUTES);
+            putLocal(key, NULL_ENTRY);
+            return null;
+        }
+        // 6.存在，写入redis
+        setRaw(key, encode(r, 0, 0, stats), time, unit);
+        putLocal(key, new CacheEntry<>(r, 0));
         return r;
     }
 
+    private <R, ID> R loadFromDb(ID id, Function<ID, R> dbFallback, CacheStats stats) {
+        long begin = System.nanoTime();
+        try {
+            return dbFallback.apply(id);
+        } finally {
+            stats.recordDbFallback(System.nanoTime() - begin);
+        }
+    }
+
+    private byte[] encode(Object value, long expireAt, long rebuildMillis, CacheStats stats) {
+        long begin = System.nanoTime();
+        byte[] bytes = cacheCodec.encode(value, expireAt, rebuildMillis);
+        stats.recordEncode(System.nanoTime() - begin);
+        return bytes;
+    }
+
+    private <R> CacheEntry<R> decode(byte[] raw, Class<R> type, CacheStats stats) {
+        long begin = System.nanoTime();
+        CacheEntry<R> entry = cacheCodec.decode(raw, type);
+        stats.recordDecode(System.nanoTime() - begin);
+        return entry;
+    }
+
+    private byte[] getRaw(String key) {
+        byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+        return stringRedisTemplate.execute((RedisCallback<byte[]>) connection -> connection.get(rawKey));
+    }
+
+    private List<byte[]> multiGetRaw(List<String> keys) {
+        byte[][] rawKeys = new byte[keys.size()][];
+        for (int i = 0; i < keys.size(); i++) {
+            rawKeys[i] = keys.get(i).getBytes(StandardCharsets.UTF_8);
+        }
+        return stringRedisTemplate.execute((RedisCallback<List<byte[]>>) connection -> connection.mGet(rawKeys));
+    }
+
+    /**
+     * time 为 null 时不设置过期时间
+     */
+    private void setRaw(String key, byte[] value, Long time, TimeUnit unit) {
+        byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+        Expiration expiration = time == null ? Expiration.persistent() : Expiration.from(time, unit);
+        stringRedisTemplate.execute((RedisCallback<Boolean>) connection ->
+                connection.set(rawKey, value, expiration, RedisStringCommands.SetOption.upsert()));
+    }
+
+    private boolean rejectedByFilter(String keyPrefix, Object id, CacheStats stats) {
+        Predicate<Object> filter = idFilters.get(keyPrefix);
+        if (filter == null || filter.test(id)) {
+            return false;
+        }
+        stats.recordFilterReject();
+        return true;
+    }
+
+    private CacheEntry<?> getLocal(String key, CacheStats stats) {
+        hotKeyDetector.record(key);
+        CacheEntry<?> value = null;
+        if (hotCache != null && hotKeyDetector.isHot(key)) {
+            value = hotCache.get(key);
+        }
+        if (value == null && localCache != null) {
+            value = localCache.get(key);
+        }
+        if (hotCache == null && localCache == null) {
+            return null;
+        }
+        if (value == null) {
+            stats.recordLocalMiss();
+        } else {
+            stats.recordLocalHit();
+        }
+        return value;
+    }
+
+    private void putLocal(String key, CacheEntry<?> value) {
+        if (localCache != null) {
+            localCache.put(key, value);
+        }
+        if (hotCache != null && hotKeyDetector.isHot(key)) {
+            hotCache.put(key, value);
+        }
+    }
+
     private boolean tryLock(String key) {
         Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", 10, TimeUnit.SECONDS);
         return BooleanUtil.isTrue(flag);
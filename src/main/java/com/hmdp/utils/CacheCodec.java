@@ -0,0 +1,25 @@
+package com.hmdp.utils;
+
+/**
+ * CacheClient 写入 Redis 的值的编解码方式
+ */
+public interface CacheCodec {
+
+    /**
+     * @param value 要缓存的对象
+     * @param expireAt 逻辑过期时间（epoch 毫秒），0 表示不带逻辑过期
+     */
+    default byte[] encode(Object value, long expireAt) {
+        return encode(value, expireAt, 0);
+    }
+
+    /**
+     * @param rebuildMillis 重建该值的耗时（毫秒），不支持的格式可以忽略
+     */
+    byte[] encode(Object value, long expireAt, long rebuildMillis);
+
+    /**
+     * 解码 encode 的结果，同时要能读出旧版本写入的数据
+     */
+    <R> CacheEntry<R> decode(byte[] bytes, Class<R> type);
+}
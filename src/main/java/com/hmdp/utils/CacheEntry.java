@@ -0,0 +1,25 @@
+package com.hmdp.utils;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * 从 Redis 解码出来的缓存条目
+ */
+@Data
+@AllArgsConstructor
+public class CacheEntry<R> {
+    private R value;
+    // 逻辑过期时间（epoch 毫秒），0 表示没有逻辑过期
+    private long expireAt;
+    // 上次重建耗时（毫秒），0 表示未知
+    private long rebuildMillis;
+
+    public CacheEntry(R value, long expireAt) {
+        this(value, expireAt, 0);
+    }
+
+    public boolean isExpired(long now) {
+        return expireAt > 0 && expireAt <= now;
+    }
+}
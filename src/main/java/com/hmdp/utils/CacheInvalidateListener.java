@@ -0,0 +1,27 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 订阅缓存失效频道，收到 key 后清掉本节点的本地缓存
+ */
+@Slf4j
+@Component
+public class CacheInvalidateListener implements MessageListener {
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String key = new String(message.getBody(), StandardCharsets.UTF_8);
+        log.debug("收到缓存失效通知, key={}", key);
+        cacheClient.evictLocal(key);
+    }
+}
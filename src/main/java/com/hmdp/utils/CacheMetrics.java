@@ -0,0 +1,41 @@
+package com.hmdp.utils;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按 key 前缀汇总的缓存指标
+ */
+@Component
+public class CacheMetrics {
+
+    private final MeterRegistry meterRegistry;
+
+    private final Map<String, CacheStats> statsByPrefix = new ConcurrentHashMap<>();
+
+    public CacheMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    public CacheStats stats(String keyPrefix) {
+        return statsByPrefix.computeIfAbsent(keyPrefix, p -> new CacheStats(p, meterRegistry));
+    }
+
+    /**
+     * 根据完整的 key 找到所属前缀的统计，cache:shop:1 -> cache:shop:
+     */
+    public CacheStats statsOfKey(String key) {
+        int i = key.lastIndexOf(':');
+        return stats(i < 0 ? key : key.substring(0, i + 1));
+    }
+
+    public Map<String, CacheStats.Snapshot> snapshot() {
+        Map<String, CacheStats.Snapshot> result = new TreeMap<>();
+        statsByPrefix.forEach((prefix, stats) -> result.put(prefix, stats.snapshot()));
+        return result;
+    }
+}
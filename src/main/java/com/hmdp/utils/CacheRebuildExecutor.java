@@ -0,0 +1,218 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.thread.ThreadFactoryBuilder;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 全局共享的缓存重建线程池：
+ * 1. 同一个 key 同一时刻只保留一个重建任务，重复提交直接丢弃；
+ * 2. 队列有界，满了直接拒绝（调用方继续返回旧数据），不会无限堆积；
+ * 3. 每个 key 前缀有自己的队列，最多由 per-prefix-threads 个线程同时处理，避免某一类数据占满线程池；
+ * 4. 任务中的异常会被记录，不会像 submit 那样被吞掉
+ */
+@Slf4j
+@Component
+public class CacheRebuildExecutor {
+
+    private final MeterRegistry meterRegistry;
+
+    @Value("${hmdp.cache.rebuild.threads:10}")
+    private int threads;
+    @Value("${hmdp.cache.rebuild.queue-capacity:1000}")
+    private int queueCapacity;
+    // 每个 key 前缀同时排队+执行的重建任务上限
+    @Value("${hmdp.cache.rebuild.per-prefix-limit:100}")
+    private int perPrefixLimit;
+    // 每个 key 前缀最多同时占用的线程数
+    @Value("${hmdp.cache.rebuild.per-prefix-threads:4}")
+    private int perPrefixThreads;
+
+    private ThreadPoolExecutor executor;
+
+    // 正在排队或执行的 key
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+    private final Map<String, Lane> lanes = new ConcurrentHashMap<>();
+    // 所有前缀排队中的任务数
+    private final AtomicInteger queued = new AtomicInteger();
+
+    private Counter dedupedCounter;
+    private Counter rejectedCounter;
+    private Counter failedCounter;
+
+    public CacheRebuildExecutor(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    private void init() {
+        // 线程池队列里只有各前缀的处理线程，数量不超过 前缀数 * per-prefix-threads，任务本身排在各前缀的队列里
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(),
+                ThreadFactoryBuilder.create().setNamePrefix("cache-rebuild-").setDaemon(true).build(),
+                new ThreadPoolExecutor.AbortPolicy());
+        Gauge.builder("cache.rebuild.queue.size", queued, AtomicInteger::get).register(meterRegistry);
+        Gauge.builder("cache.rebuild.active", executor, ThreadPoolExecutor::getActiveCount).register(meterRegistry);
+        dedupedCounter = Counter.builder("cache.rebuild.dropped").tag("reason", "duplicate").register(meterRegistry);
+        rejectedCounter = Counter.builder("cache.rebuild.dropped").tag("reason", "rejected").register(meterRegistry);
+        failedCounter = Counter.builder("cache.rebuild.failed").register(meterRegistry);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        executor.shutdown();
+    }
+
+    public boolean isInFlight(String key) {
+        return inFlight.contains(key);
+    }
+
+    /**
+     * 提交重建任务
+     * @return false 表示任务没有被接受（重复、超过前缀并发上限或队列已满），调用方需要自行释放已获取的资源
+     */
+    public boolean submit(String keyPrefix, String key, Runnable task) {
+        if (!inFlight.add(key)) {
+            dedupedCounter.increment();
+            return false;
+        }
+        Lane lane = lanes.computeIfAbsent(keyPrefix, Lane::new);
+        // 1.前缀的排队+执行数，以及总的排队数都不能超过上限
+        if (lane.size.incrementAndGet() > perPrefixLimit) {
+            lane.size.decrementAndGet();
+            inFlight.remove(key);
+            rejectedCounter.increment();
+            return false;
+        }
+        if (queued.incrementAndGet() > queueCapacity) {
+            queued.decrementAndGet();
+            lane.size.decrementAndGet();
+            inFlight.remove(key);
+            rejectedCounter.increment();
+            log.warn("缓存重建队列已满，丢弃任务, key={}", key);
+            return false;
+        }
+        // 2.放进前缀的队列，处理线程不足 per-prefix-threads 个时再启动一个
+        lane.tasks.add(new Task(key, task));
+        lane.startWorker();
+        return true;
+    }
+
+    public Status getStatus() {
+        Status status = new Status();
+        status.setQueueSize(queued.get());
+        status.setActiveCount(executor.getActiveCount());
+        status.setInFlight(inFlight.size());
+        status.setDeduped((long) dedupedCounter.count());
+        status.setRejected((long) rejectedCounter.count());
+        status.setFailed((long) failedCounter.count());
+        return status;
+    }
+
+    private static class Task {
+        final String key;
+        final Runnable runnable;
+
+        Task(String key, Runnable runnable) {
+            this.key = key;
+            this.runnable = runnable;
+        }
+    }
+
+    /**
+     * 一个 key 前缀的任务队列，由最多 per-prefix-threads 个处理线程依次取出执行
+     */
+    private class Lane implements Runnable {
+        final Queue<Task> tasks = new ConcurrentLinkedQueue<>();
+        // 排队+执行中的任务数
+        final AtomicInteger size = new AtomicInteger();
+        final AtomicInteger workers = new AtomicInteger();
+        final Timer timer;
+
+        Lane(String prefix) {
+            timer = Timer.builder("cache.rebuild.latency")
+                    .tag("prefix", prefix).publishPercentileHistogram().register(meterRegistry);
+        }
+
+        void startWorker() {
+            if (!reserveWorker()) {
+                return;
+            }
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                // 只有线程池关闭后才会拒绝，任务留在队列里不再执行
+                workers.decrementAndGet();
+                log.warn("缓存重建线程池已关闭，任务未执行");
+            }
+        }
+
+        private boolean reserveWorker() {
+            while (true) {
+                int n = workers.get();
+                if (n >= perPrefixThreads) {
+                    return false;
+                }
+                if (workers.compareAndSet(n, n + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            do {
+                Task task;
+                while ((task = tasks.poll()) != null) {
+                    queued.decrementAndGet();
+                    execute(task);
+                }
+                workers.decrementAndGet();
+                // 退出前又有任务入队、而提交方看到线程已满没有启动新线程时，由当前线程继续处理
+            } while (!tasks.isEmpty() && reserveWorker());
+        }
+
+        private void execute(Task task) {
+            long begin = System.nanoTime();
+            try {
+                task.runnable.run();
+            } catch (Exception e) {
+                failedCounter.increment();
+                log.error("缓存重建失败, key={}", task.key, e);
+            } finally {
+                timer.record(System.nanoTime() - begin, TimeUnit.NANOSECONDS);
+                size.decrementAndGet();
+                inFlight.remove(task.key);
+            }
+        }
+    }
+
+    @Data
+    public static class Status {
+        private int queueSize;
+        private int activeCount;
+        private int inFlight;
+        private long deduped;
+        private long rejected;
+        private long failed;
+    }
+}
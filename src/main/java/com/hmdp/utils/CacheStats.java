@@ -0,0 +1,142 @@
+package com.hmdp.utils;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.Data;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 某个 key 前缀（如 cache:shop:）的缓存统计，本地缓存（L1）与 Redis（L2）分开计数，
+ * 同时注册到 Micrometer，名称为 cache.requests / cache.rebuild / cache.db.fallback / cache.serialization
+ */
+public class CacheStats {
+
+    private final LongAdder localHit = new LongAdder();
+    private final LongAdder localMiss = new LongAdder();
+    private final LongAdder redisHit = new LongAdder();
+    private final LongAdder redisNullHit = new LongAdder();
+    private final LongAdder redisMiss = new LongAdder();
+    private final LongAdder filterReject = new LongAdder();
+    private final LongAdder rebuildSubmitted = new LongAdder();
+    private final LongAdder lockContention = new LongAdder();
+
+    private final Timer dbFallbackTimer;
+    private final Timer encodeTimer;
+    private final Timer decodeTimer;
+
+    public CacheStats(String prefix, MeterRegistry registry) {
+        registerCounter(registry, "cache.requests", prefix, "result", "local_hit", localHit);
+        registerCounter(registry, "cache.requests", prefix, "result", "local_miss", localMiss);
+        registerCounter(registry, "cache.requests", prefix, "result", "redis_hit", redisHit);
+        registerCounter(registry, "cache.requests", prefix, "result", "redis_null_hit", redisNullHit);
+        registerCounter(registry, "cache.requests", prefix, "result", "redis_miss", redisMiss);
+        registerCounter(registry, "cache.requests", prefix, "result", "filter_reject", filterReject);
+        registerCounter(registry, "cache.rebuild", prefix, "event", "submitted", rebuildSubmitted);
+        registerCounter(registry, "cache.rebuild", prefix, "event", "lock_contention", lockContention);
+        dbFallbackTimer = Timer.builder("cache.db.fallback")
+                .tag("prefix", prefix).publishPercentileHistogram().register(registry);
+        encodeTimer = Timer.builder("cache.serialization")
+                .tag("prefix", prefix).tag("op", "encode").publishPercentileHistogram().register(registry);
+        decodeTimer = Timer.builder("cache.serialization")
+                .tag("prefix", prefix).tag("op", "decode").publishPercentileHistogram().register(registry);
+    }
+
+    private static void registerCounter(MeterRegistry registry, String name, String prefix,
+                                        String tagKey, String tagValue, LongAdder adder) {
+        FunctionCounter.builder(name, adder, LongAdder::sum)
+                .tag("prefix", prefix).tag(tagKey, tagValue).register(registry);
+    }
+
+    public void recordLocalHit() {
+        localHit.increment();
+    }
+
+    public void recordLocalMiss() {
+        localMiss.increment();
+    }
+
+    public void recordRedisHit() {
+        redisHit.increment();
+    }
+
+    public void recordRedisNullHit() {
+        redisNullHit.increment();
+    }
+
+    public void recordRedisMiss() {
+        redisMiss.increment();
+    }
+
+    public void recordFilterReject() {
+        filterReject.increment();
+    }
+
+    public void recordRebuildSubmitted() {
+        rebuildSubmitted.increment();
+    }
+
+    public void recordLockContention() {
+        lockContention.increment();
+    }
+
+    public void recordDbFallback(long nanos) {
+        dbFallbackTimer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordEncode(long nanos) {
+        encodeTimer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordDecode(long nanos) {
+        decodeTimer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public Snapshot snapshot() {
+        Snapshot s = new Snapshot();
+        s.setLocalHit(localHit.sum());
+        s.setLocalMiss(localMiss.sum());
+        s.setRedisHit(redisHit.sum());
+        s.setRedisNullHit(redisNullHit.sum());
+        s.setRedisMiss(redisMiss.sum());
+        s.setFilterReject(filterReject.sum());
+        s.setRebuildSubmitted(rebuildSubmitted.sum());
+        s.setLockContention(lockContention.sum());
+        s.setDbFallback(TimerSnapshot.of(dbFallbackTimer));
+        s.setEncode(TimerSnapshot.of(encodeTimer));
+        s.setDecode(TimerSnapshot.of(decodeTimer));
+        return s;
+    }
+
+    @Data
+    public static class Snapshot {
+        private long localHit;
+        private long localMiss;
+        private long redisHit;
+        private long redisNullHit;
+        private long redisMiss;
+        private long filterReject;
+        private long rebuildSubmitted;
+        private long lockContention;
+        private TimerSnapshot dbFallback;
+        private TimerSnapshot encode;
+        private TimerSnapshot decode;
+    }
+
+    @Data
+    public static class TimerSnapshot {
+        private long count;
+        private double meanMillis;
+        private double maxMillis;
+
+        static TimerSnapshot of(Timer timer) {
+            TimerSnapshot s = new TimerSnapshot();
+            s.setCount(timer.count());
+            s.setMeanMillis(timer.mean(TimeUnit.MILLISECONDS));
+            s.setMaxMillis(timer.max(TimeUnit.MILLISECONDS));
+            return s;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.hash.MurmurHash;
+import cn.hutool.core.util.StrUtil;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static com.hmdp.utils.RedisConstants.CACHE_HOT_KEY_CHANNEL;
+
+/**
+ * 热点 key 探测：按采样率记录读请求，用滑动窗口内的 Count-Min Sketch 估算每个 key 的访问次数，
+ * 超过阈值的 key 被提升为热点（最多 topK 个），并广播给所有节点，各节点在本地保存一份短 TTL 的副本
+ */
+@Slf4j
+@Component
+public class HotKeyDetector implements MessageListener {
+
+    private static final int DEPTH = 4;
+    private static final int WIDTH = 1024;
+    private static final int[] SEEDS = {0x5bd1e995, 0x27d4eb2d, 0x165667b1, 0x9e3779b1};
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Value("${hmdp.cache.hot-key.enabled:false}")
+    private boolean enabled;
+    // 每 sampleRate 次读取记录一次
+    @Value("${hmdp.cache.hot-key.sample-rate:10}")
+    private int sampleRate;
+    // 窗口内估算访问次数超过该值即为热点
+    @Value("${hmdp.cache.hot-key.threshold:1000}")
+    private long threshold;
+    @Value("${hmdp.cache.hot-key.window-seconds:10}")
+    private int windowSeconds;
+    @Value("${hmdp.cache.hot-key.buckets:5}")
+    private int bucketCount;
+    @Value("${hmdp.cache.hot-key.top-k:50}")
+    private int topK;
+    // 被提升后保持热点状态的时长，期间仍然很热会自动续期
+    @Value("${hmdp.cache.hot-key.hold-seconds:30}")
+    private long holdSeconds;
+
+    // 滑动窗口，每个桶是一个 DEPTH * WIDTH 的 Count-Min Sketch
+    private AtomicLongArray[] buckets;
+    private volatile int current;
+
+    private final Map<String, HotKey> hotKeys = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void init() {
+        buckets = new AtomicLongArray[bucketCount];
+        for (int i = 0; i < bucketCount; i++) {
+            buckets[i] = new AtomicLongArray(DEPTH * WIDTH);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 记录一次读取，按采样率跳过大部分请求
+     */
+    public void record(String key) {
+        if (!enabled || (sampleRate > 1 && ThreadLocalRandom.current().nextInt(sampleRate) != 0)) {
+            return;
+        }
+        int[] indexes = indexes(key);
+        AtomicLongArray bucket = buckets[current];
+        for (int idx : indexes) {
+            bucket.incrementAndGet(idx);
+        }
+        long estimate = estimate(indexes) * Math.max(sampleRate, 1);
+        if (estimate < threshold) {
+            return;
+        }
+        HotKey hotKey = hotKeys.get(key);
+        if (hotKey != null) {
+            // 已经是热点，刷新估算值并续期
+            hotKey.setEstimate(estimate);
+            hotKey.setExpireAt(System.currentTimeMillis() + holdSeconds * 1000);
+            return;
+        }
+        if (promote(key, estimate)) {
+            log.info("发现热点 key: {}, 估算访问次数: {}", key, estimate);
+            stringRedisTemplate.convertAndSend(CACHE_HOT_KEY_CHANNEL, estimate + "," + key);
+        }
+    }
+
+    public boolean isHot(String key) {
+        if (!enabled) {
+            return false;
+        }
+        HotKey hotKey = hotKeys.get(key);
+        return hotKey != null && hotKey.getExpireAt() > System.currentTimeMillis();
+    }
+
+    /**
+     * 当前的热点 key，按估算访问次数从高到低排列
+     */
+    public List<HotKey> getHotKeys() {
+        List<HotKey> list = new ArrayList<>(hotKeys.values());
+        list.sort(Comparator.comparingLong(HotKey::getEstimate).reversed());
+        return list;
+    }
+
+    /**
+     * 其他节点发现的热点，本节点同样提升，并沿用发现节点的估算值，避免一提升就被本地的热点挤掉。
+     * 消息格式为 估算值,key；旧版本节点只发送 key，估算值按 0 处理
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        if (!enabled) {
+            return;
+        }
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        int comma = body.indexOf(',');
+        if (comma > 0 && StrUtil.isNumeric(body.substring(0, comma))) {
+            promote(body.substring(comma + 1), Long.parseLong(body.substring(0, comma)));
+        } else {
+            promote(body, 0);
+        }
+    }
+
+    /**
+     * 滑动窗口前进一格：清空最旧的桶，并清理已过期的热点
+     */
+    @Scheduled(fixedDelayString = "#{${hmdp.cache.hot-key.window-seconds:10} * 1000 / ${hmdp.cache.hot-key.buckets:5}}")
+    public void rotate() {
+        if (!enabled) {
+            return;
+        }
+        int next = (current + 1) % bucketCount;
+        buckets[next] = new AtomicLongArray(DEPTH * WIDTH);
+        current = next;
+        long now = System.currentTimeMillis();
+        hotKeys.values().removeIf(hotKey -> hotKey.getExpireAt() <= now);
+    }
+
+    private synchronized boolean promote(String key, long estimate) {
+        HotKey existing = hotKeys.get(key);
+        long expireAt = System.currentTimeMillis() + holdSeconds * 1000;
+        if (existing != null) {
+            existing.setEstimate(Math.max(existing.getEstimate(), estimate));
+            existing.setExpireAt(expireAt);
+            return false;
+        }
+        if (hotKeys.size() >= topK) {
+            // 已满时替换掉估算值最小的那个
+            HotKey min = hotKeys.values().stream().min(Comparator.comparingLong(HotKey::getEstimate)).orElse(null);
+            if (min == null || min.getEstimate() >= estimate) {
+                return false;
+            }
+            hotKeys.remove(min.getKey());
+        }
+        hotKeys.put(key, new HotKey(key, estimate, expireAt));
+        return true;
+    }
+
+    /**
+     * 窗口内估算的访问次数，已按采样率放大
+     */
+    long estimate(String key) {
+        return estimate(indexes(key)) * Math.max(sampleRate, 1);
+    }
+
+    private long estimate(int[] indexes) {
+        long min = Long.MAX_VALUE;
+        for (int idx : indexes) {
+            long sum = 0;
+            for (AtomicLongArray bucket : buckets) {
+                sum += bucket.get(idx);
+            }
+            min = Math.min(min, sum);
+        }
+        return min;
+    }
+
+    /**
+     * 每一行用不同种子的 murmur3 独立计算，hashCode 相同的两个 key 不会在所有行上都冲突
+     */
+    private static int[] indexes(String key) {
+        byte[] data = key.getBytes(StandardCharsets.UTF_8);
+        int[] indexes = new int[DEPTH];
+        for (int i = 0; i < DEPTH; i++) {
+            indexes[i] = i * WIDTH + (MurmurHash.hash32(data, data.length, SEEDS[i]) & 0x7fffffff) % WIDTH;
+        }
+        return indexes;
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class HotKey {
+        private String key;
+        // 窗口内估算的访问次数，由其他节点广播而来的为发现节点的估算值
+        private volatile long estimate;
+        private volatile long expireAt;
+    }
+}
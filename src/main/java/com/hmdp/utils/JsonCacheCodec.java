@@ -0,0 +1,40 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * 原有的 hutool JSON 格式：普通值直接序列化，逻辑过期的值包装成 RedisData
+ */
+public class JsonCacheCodec implements CacheCodec {
+
+    @Override
+    public byte[] encode(Object value, long expireAt, long rebuildMillis) {
+        if (expireAt <= 0) {
+            return JSONUtil.toJsonStr(value).getBytes(StandardCharsets.UTF_8);
+        }
+        RedisData redisData = new RedisData();
+        redisData.setData(value);
+        redisData.setExpireTime(LocalDateTime.ofInstant(Instant.ofEpochMilli(expireAt), ZoneId.systemDefault()));
+        return JSONUtil.toJsonStr(redisData).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public <R> CacheEntry<R> decode(byte[] bytes, Class<R> type) {
+        JSONObject json = JSONUtil.parseObj(new String(bytes, StandardCharsets.UTF_8));
+        if (!json.containsKey("expireTime") || !json.containsKey("data")) {
+            return new CacheEntry<>(json.toBean(type), 0);
+        }
+        // setWithLogicalExpire 写入的 RedisData
+        RedisData redisData = json.toBean(RedisData.class);
+        Object data = redisData.getData();
+        R value = data instanceof JSONObject ? ((JSONObject) data).toBean(type) : null;
+        long expireAt = redisData.getExpireTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        return new CacheEntry<>(value, expireAt);
+    }
+}
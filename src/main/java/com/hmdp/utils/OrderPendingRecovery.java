@@ -0,0 +1,167 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.IVoucherOrderService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_DLQ_KEY;
+
+/**
+ * 订单 stream 的待确认消息（pending list）恢复，由持有分区租约的消费者定期调用：
+ * 1. XAUTOCLAIM 接管其他消费者（例如已宕机的节点）空闲太久的消息；
+ * 2. 本消费者名下处理失败的消息按投递次数指数退避后重试；
+ * 3. 投递次数达到上限的消息转入死信 stream，不再阻塞后面的消息
+ */
+@Slf4j
+@Component
+public class OrderPendingRecovery {
+
+    private static final DefaultRedisScript<Long> CLAIM_SCRIPT;
+    @SuppressWarnings("rawtypes")
+    private static final DefaultRedisScript<List> RETRY_SCRIPT;
+    @SuppressWarnings("rawtypes")
+    private static final DefaultRedisScript<List> DLQ_SCRIPT;
+    static {
+        CLAIM_SCRIPT = new DefaultRedisScript<>();
+        CLAIM_SCRIPT.setLocation(new ClassPathResource("stream_claim.lua"));
+        CLAIM_SCRIPT.setResultType(Long.class);
+        RETRY_SCRIPT = new DefaultRedisScript<>();
+        RETRY_SCRIPT.setLocation(new ClassPathResource("stream_retry.lua"));
+        RETRY_SCRIPT.setResultType(List.class);
+        DLQ_SCRIPT = new DefaultRedisScript<>();
+        DLQ_SCRIPT.setLocation(new ClassPathResource("stream_dlq.lua"));
+        DLQ_SCRIPT.setResultType(List.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+    @Resource
+    private MeterRegistry meterRegistry;
+    @Resource
+    private OrderStatusTracker orderStatusTracker;
+
+    @Value("${hmdp.seckill.stream.group:g1}")
+    private String group;
+    // 其他消费者的消息空闲超过该时间才接管，要比正常处理一条订单的时间长得多
+    @Value("${hmdp.seckill.recovery.claim-min-idle-millis:30000}")
+    private long claimMinIdleMillis;
+    // 第 n 次重试前至少等待 base * 2^(n-1)，最多 max
+    @Value("${hmdp.seckill.recovery.backoff-base-millis:1000}")
+    private long backoffBaseMillis;
+    @Value("${hmdp.seckill.recovery.backoff-max-millis:60000}")
+    private long backoffMaxMillis;
+    @Value("${hmdp.seckill.recovery.max-deliveries:5}")
+    private int maxDeliveries;
+    @Value("${hmdp.seckill.recovery.batch-size:100}")
+    private int batchSize;
+
+    private Counter claimedCounter;
+    private Counter retriedCounter;
+    private Counter retryFailedCounter;
+    private Counter deadLetterCounter;
+
+    @PostConstruct
+    private void init() {
+        claimedCounter = Counter.builder("seckill.order.pending.claimed").register(meterRegistry);
+        retriedCounter = Counter.builder("seckill.order.pending.retried").register(meterRegistry);
+        retryFailedCounter = Counter.builder("seckill.order.pending.retry.failed").register(meterRegistry);
+        deadLetterCounter = Counter.builder("seckill.order.pending.dead.letter").register(meterRegistry);
+    }
+
+    /**
+     * 处理一个分区的待确认消息
+     * @param streamKey 分区 stream
+     * @param consumer 持有该分区租约的消费者
+     */
+    public void recover(String streamKey, String consumer) {
+        // 1.接管其他消费者空闲太久的消息
+        Long claimed = stringRedisTemplate.execute(CLAIM_SCRIPT, Collections.singletonList(streamKey),
+                group, consumer, String.valueOf(claimMinIdleMillis), String.valueOf(batchSize));
+        if (claimed != null && claimed > 0) {
+            claimedCounter.increment(claimed);
+            log.info("从 {} 接管了 {} 条待确认订单, consumer={}", streamKey, claimed, consumer);
+        }
+        // 2.逐条检查本消费者名下的待确认消息
+        PendingMessages pending = stringRedisTemplate.opsForStream()
+                .pending(streamKey, Consumer.from(group, consumer), Range.unbounded(), (long) batchSize);
+        for (PendingMessage message : pending) {
+            long deliveries = message.getTotalDeliveryCount();
+            String id = message.getIdAsString();
+            if (deliveries >= maxDeliveries) {
+                // 2.1 失败次数太多，转入死信，订单状态改为失败
+                List<?> fields = stringRedisTemplate.execute(DLQ_SCRIPT, Arrays.asList(streamKey, SECKILL_ORDER_DLQ_KEY),
+                        group, id, String.valueOf(deliveries));
+                deadLetterCounter.increment();
+                if (fields != null && !fields.isEmpty()) {
+                    orderStatusTracker.markFailed(Collections.singletonList(OrderStreamConsumer.toOrder(toMap(fields))));
+                }
+                log.error("订单消息处理 {} 次仍失败，已转入死信, stream={}, id={}", deliveries, streamKey, id);
+                continue;
+            }
+            // 2.2 还没到退避时间的下次再试
+            if (message.getElapsedTimeSinceLastDelivery().toMillis() < backoffMillis(deliveries)) {
+                continue;
+            }
+            retry(streamKey, consumer, id);
+        }
+    }
+
+    private long backoffMillis(long deliveries) {
+        long shift = Math.min(Math.max(deliveries - 1, 0), 20);
+        return Math.min(backoffBaseMillis << shift, backoffMaxMillis);
+    }
+
+    private void retry(String streamKey, String consumer, String id) {
+        // XCLAIM 重新投递，投递次数加一
+        List<?> entries = stringRedisTemplate.execute(RETRY_SCRIPT, Collections.singletonList(streamKey),
+                group, consumer, id);
+        try {
+            if (entries != null && !entries.isEmpty()) {
+                List<?> entry = (List<?>) entries.get(0);
+                VoucherOrder voucherOrder = OrderStreamConsumer.toOrder(toMap((List<?>) entry.get(1)));
+                // 创建订单时会判断重复，同一条消息处理多次不会重复下单
+                List<VoucherOrder> orders = Collections.singletonList(voucherOrder);
+                if (voucherOrderService.createVoucherOrder(voucherOrder)) {
+                    orderStatusTracker.markPersisted(orders);
+                } else {
+                    orderStatusTracker.markFailed(orders);
+                }
+                retriedCounter.increment();
+            }
+            // 消息已经被删除时也直接确认
+            stringRedisTemplate.opsForStream().acknowledge(streamKey, group, id);
+        } catch (Exception e) {
+            retryFailedCounter.increment();
+            log.warn("重试订单消息失败, stream={}, id={}", streamKey, id, e);
+        }
+    }
+
+    private static Map<Object, Object> toMap(List<?> fields) {
+        Map<Object, Object> values = new HashMap<>(fields.size());
+        for (int i = 0; i + 1 < fields.size(); i += 2) {
+            values.put(fields.get(i), fields.get(i + 1));
+        }
+        return values;
+    }
+}
@@ -0,0 +1,187 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.dto.Result;
+import com.hmdp.entity.VoucherOrder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static com.hmdp.utils.RedisConstants.ORDER_STATUS_CHANNEL;
+import static com.hmdp.utils.RedisConstants.ORDER_STATUS_KEY;
+
+/**
+ * 秒杀订单的处理状态，保存在 hash order:status:{分区 tag}:{时间戳}:{序列号}（status、userId），客户端查询不访问数据库：
+ * QUEUED 由秒杀脚本在写入 stream 时设置，PERSISTED / FAILED 由订单消费者在事务提交后设置。
+ * <p>
+ * 状态变化通过 order:status 频道广播，各节点唤醒正在长轮询该订单的请求
+ */
+@Slf4j
+@Component
+public class OrderStatusTracker implements MessageListener {
+
+    public static final String QUEUED = "QUEUED";
+    public static final String PERSISTED = "PERSISTED";
+    public static final String FAILED = "FAILED";
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    // 状态保留多久，秒杀脚本写入时使用同样的有效期
+    @Value("${hmdp.seckill.order-status.ttl-seconds:1800}")
+    private long ttlSeconds;
+
+    // 正在长轮询的请求，key 为订单 id
+    private final Map<Long, Queue<DeferredResult<Result>>> waiters = new ConcurrentHashMap<>();
+
+    public long getTtlSeconds() {
+        return ttlSeconds;
+    }
+
+    /**
+     * 订单 id 的高位是时间戳、低 32 位是序列号，脚本里拿不到完整的 id，key 用这两部分拼接。
+     * 序列号的低 8 位是订单 stream 的分区号，key 带上该分区的 hash tag，与秒杀脚本的其他 key 在同一个 slot
+     */
+    public static String statusKey(long orderId) {
+        int partition = (int) (orderId & (OrderStreamConsumer.MAX_PARTITIONS - 1));
+        return ORDER_STATUS_KEY + OrderStreamConsumer.slotTag(partition) + ":" + (orderId >>> 32) + ":" + (orderId & 0xFFFFFFFFL);
+    }
+
+    /**
+     * 加 hash tag 之前的格式，滚动发布期间旧节点仍按这个格式写入
+     */
+    private static String legacyStatusKey(long orderId) {
+        return ORDER_STATUS_KEY + (orderId >>> 32) + ":" + (orderId & 0xFFFFFFFFL);
+    }
+
+    public void markPersisted(List<VoucherOrder> orders) {
+        mark(orders, PERSISTED);
+    }
+
+    public void markFailed(List<VoucherOrder> orders) {
+        mark(orders, FAILED);
+    }
+
+    private void mark(List<VoucherOrder> orders, String status) {
+        if (orders.isEmpty()) {
+            return;
+        }
+        // 1.一次往返更新这批订单的状态
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (VoucherOrder order : orders) {
+                String key = statusKey(order.getId());
+                Map<String, String> values = new HashMap<>(4);
+                values.put("status", status);
+                values.put("userId", String.valueOf(order.getUserId()));
+                conn.hMSet(key, values);
+                conn.expire(key, ttlSeconds);
+            }
+            return null;
+        });
+        // 2.整批只广播一条消息：orderId:status,orderId:status...
+        StringBuilder body = new StringBuilder();
+        for (VoucherOrder order : orders) {
+            if (body.length() > 0) {
+                body.append(',');
+            }
+            body.append(order.getId()).append(':').append(status);
+        }
+        stringRedisTemplate.convertAndSend(ORDER_STATUS_CHANNEL, body.toString());
+    }
+
+    /**
+     * 查询订单状态，只能查询自己的订单
+     * @return 订单不存在、已过期或不属于该用户时返回 null
+     */
+    public String getStatus(long orderId, Long userId) {
+        List<Object> fields = Arrays.asList("status", "userId");
+        List<Object> values = stringRedisTemplate.opsForHash().multiGet(statusKey(orderId), fields);
+        if (values.get(0) == null) {
+            values = stringRedisTemplate.opsForHash().multiGet(legacyStatusKey(orderId), fields);
+        }
+        Object status = values.get(0);
+        Object owner = values.get(1);
+        if (status == null || owner == null || !owner.toString().equals(String.valueOf(userId))) {
+            return null;
+        }
+        return status.toString();
+    }
+
+    /**
+     * 长轮询订单状态：已经是最终状态时立即返回，否则等到状态变化或超时，超时返回当前状态
+     */
+    public DeferredResult<Result> watch(long orderId, Long userId, long timeoutMillis) {
+        DeferredResult<Result> result = new DeferredResult<>(timeoutMillis);
+        String status = getStatus(orderId, userId);
+        if (status == null) {
+            result.setResult(Result.fail("订单不存在或已过期"));
+            return result;
+        }
+        if (!QUEUED.equals(status)) {
+            result.setResult(Result.ok(status));
+            return result;
+        }
+        // 1.登记等待，完成或超时后移除；与 removeWaiter 都在 compute 中修改队列，不会加到刚被删掉的空队列里
+        waiters.compute(orderId, (id, queue) -> {
+            if (queue == null) {
+                queue = new ConcurrentLinkedQueue<>();
+            }
+            queue.add(result);
+            return queue;
+        });
+        result.onCompletion(() -> removeWaiter(orderId, result));
+        result.onTimeout(() -> result.setResult(Result.ok(QUEUED)));
+        // 2.登记前状态可能刚好变了，再查一次
+        status = getStatus(orderId, userId);
+        if (status != null && !QUEUED.equals(status)) {
+            result.setResult(Result.ok(status));
+        }
+        return result;
+    }
+
+    private void removeWaiter(long orderId, DeferredResult<Result> result) {
+        waiters.computeIfPresent(orderId, (id, queue) -> {
+            queue.remove(result);
+            return queue.isEmpty() ? null : queue;
+        });
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        if (waiters.isEmpty()) {
+            return;
+        }
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        for (String item : StrUtil.split(body, ',')) {
+            int i = item.indexOf(':');
+            if (i <= 0) {
+                continue;
+            }
+            Queue<DeferredResult<Result>> queue = waiters.remove(Long.valueOf(item.substring(0, i)));
+            if (queue == null) {
+                continue;
+            }
+            Result result = Result.ok(item.substring(i + 1));
+            for (DeferredResult<Result> waiter : queue) {
+                waiter.setResult(result);
+            }
+        }
+    }
+}
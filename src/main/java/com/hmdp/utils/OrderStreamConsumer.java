@@ -0,0 +1,568 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.thread.ThreadFactoryBuilder;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.IVoucherOrderService;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessagesSummary;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamInfo;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.utils.RedisConstants.LOCK_ORDER_STREAM_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_DLQ_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_LEGACY_STREAM_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STREAM_KEY;
+
+/**
+ * 秒杀订单消费者：订单分到多个 stream（stream.orders:{分区}），同一用户同一张券的订单只在一个分区里。
+ * 每个节点启动若干消费线程，消费线程先抢到分区的租约（Redisson 锁，持有期间看门狗自动续期）再消费该分区，
+ * 所以一个分区同一时刻只有一个消费者，同一分区的订单按顺序处理；节点宕机后租约过期，由其他节点接手。
+ * <p>
+ * 秒杀脚本访问的库存、已下单用户集合、序列号和订单状态 key 都带有分区 stream 的 hash tag（{@link #slotTag}），
+ * 与 stream 在集群中位于同一个 slot。分区号放在订单序列号的低 8 位，所以最多 {@link #MAX_PARTITIONS} 个分区
+ */
+@Slf4j
+@Component
+public class OrderStreamConsumer {
+
+    public static final int MAX_PARTITIONS = 256;
+
+    private static final DefaultRedisScript<Long> CREATE_GROUP_SCRIPT;
+    static {
+        CREATE_GROUP_SCRIPT = new DefaultRedisScript<>();
+        CREATE_GROUP_SCRIPT.setLocation(new ClassPathResource("stream_group.lua"));
+        CREATE_GROUP_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private RedissonClient redissonClient;
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+    @Resource
+    private MeterRegistry meterRegistry;
+    @Resource
+    private OrderPendingRecovery orderPendingRecovery;
+    @Resource
+    private OrderStatusTracker orderStatusTracker;
+
+    @Value("${hmdp.seckill.stream.partitions:4}")
+    private int partitions;
+    @Value("${hmdp.seckill.stream.consumers:2}")
+    private int consumers;
+    @Value("${hmdp.seckill.stream.group:g1}")
+    private String group;
+    @Value("${hmdp.seckill.stream.block-millis:2000}")
+    private long blockMillis;
+    // 没抢到的分区隔多久再抢一次
+    @Value("${hmdp.seckill.stream.lease-retry-millis:5000}")
+    private long leaseRetryMillis;
+    // 批量模式：一次最多处理 batch-size 条，读到第一条后最多再等 max-wait-millis 凑批
+    @Value("${hmdp.seckill.stream.batch.enabled:false}")
+    private boolean batchEnabled;
+    @Value("${hmdp.seckill.stream.batch.size:100}")
+    private int batchSize;
+    @Value("${hmdp.seckill.stream.batch.max-wait-millis:50}")
+    private long batchMaxWaitMillis;
+    // 多久检查一次持有分区的待确认消息
+    @Value("${hmdp.seckill.recovery.interval-millis:5000}")
+    private long recoveryIntervalMillis;
+    // 旧 stream 连续这么久没有新消息、也没有未确认的消息后，才停止消费
+    @Value("${hmdp.seckill.stream.legacy-idle-millis:600000}")
+    private long legacyIdleMillis;
+
+    // 本节点的标识，消费者名称为 节点标识-线程序号
+    private final String nodeId = ManagementFactory.getRuntimeMXBean().getName();
+    private final List<Worker> workers = new ArrayList<>();
+    private ExecutorService executor;
+    private volatile boolean running = true;
+    private Thread legacyDrainer;
+
+    @PostConstruct
+    private void init() {
+        if (partitions < 1 || partitions > MAX_PARTITIONS) {
+            throw new IllegalStateException("hmdp.seckill.stream.partitions 必须在 1 到 " + MAX_PARTITIONS + " 之间");
+        }
+        for (int p = 0; p < partitions; p++) {
+            String stream = streamKey(p);
+            stringRedisTemplate.execute(CREATE_GROUP_SCRIPT, Collections.singletonList(stream), group);
+            Gauge.builder("seckill.order.stream.lag", this, c -> c.lagMillis(stream))
+                    .tag("stream", stream).baseUnit("milliseconds").register(meterRegistry);
+            Gauge.builder("seckill.order.stream.pending", this, c -> c.pendingCount(c.pendingSummary(stream)))
+                    .tag("stream", stream).register(meterRegistry);
+            Gauge.builder("seckill.order.stream.pending.oldest.age", this, c -> c.oldestPendingAgeMillis(c.pendingSummary(stream)))
+                    .tag("stream", stream).baseUnit("milliseconds").register(meterRegistry);
+        }
+        executor = Executors.newFixedThreadPool(consumers,
+                ThreadFactoryBuilder.create().setNamePrefix("order-consumer-").build());
+        for (int i = 0; i < consumers; i++) {
+            Worker worker = new Worker(i);
+            workers.add(worker);
+            executor.submit(worker);
+        }
+        // 分区之前的订单写在单个 stream.orders 中，单独把它消费完
+        legacyDrainer = new Thread(this::drainLegacy, "order-consumer-legacy");
+        legacyDrainer.setDaemon(true);
+        legacyDrainer.start();
+    }
+
+    /**
+     * 消费分区之前写入 stream.orders 的订单，包括旧消费者没有确认的消息。
+     * 滚动发布期间旧版本节点还会继续写入，所以每隔 lease-retry-millis 检查一次，
+     * 连续 legacy-idle-millis 没有新消息且没有未确认的消息后才退出。
+     * 同一时刻只有一个节点消费，其他节点等它结束或失败后再试
+     */
+    private void drainLegacy() {
+        String consumer = nodeId + "-legacy";
+        long idleSince = System.currentTimeMillis();
+        while (running) {
+            try {
+                boolean idle = false;
+                if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(SECKILL_ORDER_LEGACY_STREAM_KEY))) {
+                    idle = true;
+                } else {
+                    RLock lock = redissonClient.getLock(LOCK_ORDER_STREAM_KEY + "legacy");
+                    if (lock.tryLock()) {
+                        try {
+                            idle = drainLegacyOnce(consumer);
+                        } finally {
+                            lock.unlock();
+                        }
+                    }
+                }
+                // 没抢到锁说明其他节点正在消费，也不算空闲
+                long now = System.currentTimeMillis();
+                if (!idle) {
+                    idleSince = now;
+                } else if (now - idleSince >= legacyIdleMillis) {
+                    log.info("旧订单 stream {} 已空闲 {} ms, 停止消费", SECKILL_ORDER_LEGACY_STREAM_KEY, now - idleSince);
+                    return;
+                }
+            } catch (Exception e) {
+                log.error("消费旧订单 stream 失败, consumer={}", consumer, e);
+            }
+            try {
+                Thread.sleep(leaseRetryMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return 本次没有读到新消息，并且所有消息都已确认
+     */
+    private boolean drainLegacyOnce(String consumer) {
+        String stream = SECKILL_ORDER_LEGACY_STREAM_KEY;
+        stringRedisTemplate.execute(CREATE_GROUP_SCRIPT, Collections.singletonList(stream), group);
+        // 1.处理从未投递过的消息，失败的留在 pending list
+        boolean received = false;
+        while (running) {
+            List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                    Consumer.from(group, consumer), StreamReadOptions.empty().count(batchSize),
+                    StreamOffset.create(stream, ReadOffset.lastConsumed()));
+            if (list == null || list.isEmpty()) {
+                break;
+            }
+            received = true;
+            for (MapRecord<String, Object, Object> record : list) {
+                try {
+                    VoucherOrder voucherOrder = toOrder(record);
+                    List<VoucherOrder> orders = Collections.singletonList(voucherOrder);
+                    if (voucherOrderService.createVoucherOrder(voucherOrder)) {
+                        orderStatusTracker.markPersisted(orders);
+                    } else {
+                        orderStatusTracker.markFailed(orders);
+                    }
+                    stringRedisTemplate.opsForStream().acknowledge(stream, group, record.getId());
+                } catch (Exception e) {
+                    log.error("处理旧订单消息失败, id={}", record.getId(), e);
+                }
+            }
+        }
+        // 2.与分区一样处理未确认的消息：接管旧消费者空闲的消息，退避重试，多次失败转入死信
+        orderPendingRecovery.recover(stream, consumer);
+        // 3.还有未确认的消息就不算空闲，由 drainLegacy 过一会儿再来
+        PendingMessagesSummary pending = pendingSummary(stream);
+        return running && !received && pendingCount(pending) == 0;
+    }
+
+    /**
+     * 停止拉取新消息，等待正在处理的订单完成并释放分区租约
+     */
+    @PreDestroy
+    private void destroy() throws InterruptedException {
+        running = false;
+        executor.shutdown();
+        if (!executor.awaitTermination(blockMillis * 2 + 5000, TimeUnit.MILLISECONDS)) {
+            log.warn("订单消费线程未能按时退出");
+            executor.shutdownNow();
+        }
+    }
+
+    public static String streamKey(int partition) {
+        return SECKILL_ORDER_STREAM_KEY + partition;
+    }
+
+    /**
+     * 分区 stream 的 key 本身不带 hash tag，用整个 key 作为 tag，其他 key 带上它就与 stream 位于同一个 slot
+     */
+    public static String slotTag(int partition) {
+        return "{" + streamKey(partition) + "}";
+    }
+
+    private class Worker implements Runnable {
+        final String name;
+        // 按分区号排序，查询状态的线程也会读取
+        final Map<Integer, RLock> leases = new ConcurrentSkipListMap<>();
+        final List<Integer> candidates = new ArrayList<>();
+        final AtomicLong processed = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+        volatile long lastProcessTime;
+        long nextAcquireTime;
+        long nextRecoveryTime;
+
+        Worker(int index) {
+            this.name = nodeId + "-" + index;
+            // 第 i 个线程负责 分区号 % 线程数 == i 的分区
+            for (int p = index; p < partitions; p += consumers) {
+                candidates.add(p);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    try {
+                        // 1.定期抢占还没有消费者的分区，并检查已持有的租约是否还有效
+                        if (System.currentTimeMillis() >= nextAcquireTime) {
+                            acquireLeases();
+                            nextAcquireTime = System.currentTimeMillis() + leaseRetryMillis;
+                        } else {
+                            // 每次读取前确认租约仍然有效，丢失的分区不再读取
+                            dropLostLeases();
+                        }
+                        if (leases.isEmpty()) {
+                            Thread.sleep(blockMillis);
+                            continue;
+                        }
+                        // 2.定期处理持有分区的待确认消息：接管、退避重试、转入死信
+                        if (System.currentTimeMillis() >= nextRecoveryTime) {
+                            recoverPending();
+                            nextRecoveryTime = System.currentTimeMillis() + recoveryIntervalMillis;
+                        }
+                        // 3.从持有的分区中读取订单，XREADGROUP GROUP g1 name COUNT 1 BLOCK 2000 STREAMS ... >
+                        List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                                Consumer.from(group, name),
+                                StreamReadOptions.empty().count(1).block(Duration.ofMillis(blockMillis)),
+                                offsets(ReadOffset.lastConsumed()));
+                        if (list == null || list.isEmpty()) {
+                            continue;
+                        }
+                        if (batchEnabled) {
+                            handleBatch(fillBatch(list));
+                        } else {
+                            for (MapRecord<String, Object, Object> record : list) {
+                                handle(record);
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    } catch (Exception e) {
+                        // 失败的消息留在 pending list 中，由下一次恢复时退避重试
+                        failed.incrementAndGet();
+                        log.error("订单消费异常, consumer={}", name, e);
+                    }
+                }
+            } finally {
+                releaseLeases();
+            }
+        }
+
+        private void acquireLeases() {
+            for (Integer p : candidates) {
+                RLock lock = leases.get(p);
+                if (lock != null) {
+                    if (lock.isHeldByCurrentThread()) {
+                        continue;
+                    }
+                    // 租约已经丢失（例如与 Redis 断开太久），可能已被其他节点接手
+                    leases.remove(p);
+                    log.warn("分区 {} 的租约已失效, consumer={}", p, name);
+                }
+                lock = redissonClient.getLock(LOCK_ORDER_STREAM_KEY + p);
+                if (lock.tryLock()) {
+                    leases.put(p, lock);
+                    log.info("分区 {} 由 {} 消费", p, name);
+                }
+            }
+        }
+
+        /**
+         * 租约（Redisson 锁，看门狗续期）可能因为与 Redis 断开太久而过期，被其他节点抢到。
+         * 这里每批读取前检查一次，但检查之后、处理完这一批之前租约仍可能过期，
+         * 这段时间内两个消费者可能处理同一分区的消息，此时只能依靠创建订单时按 用户+券 查重兜底
+         */
+        private void dropLostLeases() {
+            for (Map.Entry<Integer, RLock> entry : leases.entrySet()) {
+                if (!entry.getValue().isHeldByCurrentThread()) {
+                    leases.remove(entry.getKey());
+                    log.warn("分区 {} 的租约已失效, consumer={}", entry.getKey(), name);
+                }
+            }
+        }
+
+        private void releaseLeases() {
+            for (RLock lock : leases.values()) {
+                try {
+                    if (lock.isHeldByCurrentThread()) {
+                        lock.unlock();
+                    }
+                } catch (Exception e) {
+                    log.warn("释放分区租约失败", e);
+                }
+            }
+            leases.clear();
+        }
+
+        @SuppressWarnings("unchecked")
+        private StreamOffset<String>[] offsets(ReadOffset offset) {
+            StreamOffset<String>[] offsets = new StreamOffset[leases.size()];
+            int i = 0;
+            for (Integer p : leases.keySet()) {
+                offsets[i++] = StreamOffset.create(streamKey(p), offset);
+            }
+            return offsets;
+        }
+
+        private void handle(MapRecord<String, Object, Object> record) {
+            //1. 解析订单
+            VoucherOrder voucherOrder = toOrder(record);
+            //2. 处理订单，往数据库里面加东西。分区同一时刻只有一个消费者，不需要再按用户加锁
+            boolean created = voucherOrderService.createVoucherOrder(voucherOrder);
+            //3. 事务已提交，更新订单状态
+            List<VoucherOrder> orders = Collections.singletonList(voucherOrder);
+            if (created) {
+                orderStatusTracker.markPersisted(orders);
+            } else {
+                orderStatusTracker.markFailed(orders);
+            }
+            //4. ACK。 XACK stream.orders:{p} g1 id
+            stringRedisTemplate.opsForStream().acknowledge(record.getStream(), group, record.getId());
+            processed.incrementAndGet();
+            lastProcessTime = System.currentTimeMillis();
+        }
+
+        /**
+         * 已经读到了消息，在 max-wait-millis 内继续读，直到凑够 batch-size 条或没有新消息
+         */
+        private List<MapRecord<String, Object, Object>> fillBatch(List<MapRecord<String, Object, Object>> first) {
+            List<MapRecord<String, Object, Object>> batch = new ArrayList<>(first);
+            long deadline = System.currentTimeMillis() + batchMaxWaitMillis;
+            while (batch.size() < batchSize) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    break;
+                }
+                List<MapRecord<String, Object, Object>> more = stringRedisTemplate.opsForStream().read(
+                        Consumer.from(group, name),
+                        StreamReadOptions.empty().count(batchSize - batch.size()).block(Duration.ofMillis(remaining)),
+                        offsets(ReadOffset.lastConsumed()));
+                if (more == null || more.isEmpty()) {
+                    break;
+                }
+                batch.addAll(more);
+            }
+            return batch;
+        }
+
+        /**
+         * 一个事务处理整批订单，每个 stream 只 XACK 一次。失败时整批留在 pending list，由逐条处理兜底
+         */
+        private void handleBatch(List<MapRecord<String, Object, Object>> batch) {
+            List<VoucherOrder> orders = new ArrayList<>(batch.size());
+            Map<String, List<RecordId>> idsByStream = new LinkedHashMap<>();
+            for (MapRecord<String, Object, Object> record : batch) {
+                orders.add(toOrder(record));
+                idsByStream.computeIfAbsent(record.getStream(), s -> new ArrayList<>()).add(record.getId());
+            }
+            List<VoucherOrder> failedOrders = voucherOrderService.createVoucherOrders(orders);
+            if (failedOrders.isEmpty()) {
+                orderStatusTracker.markPersisted(orders);
+            } else {
+                List<VoucherOrder> persisted = new ArrayList<>(orders);
+                persisted.removeAll(failedOrders);
+                orderStatusTracker.markPersisted(persisted);
+                orderStatusTracker.markFailed(failedOrders);
+            }
+            for (Map.Entry<String, List<RecordId>> entry : idsByStream.entrySet()) {
+                stringRedisTemplate.opsForStream().acknowledge(entry.getKey(), group,
+                        entry.getValue().toArray(new RecordId[0]));
+            }
+            processed.addAndGet(batch.size());
+            lastProcessTime = System.currentTimeMillis();
+        }
+
+        private void recoverPending() {
+            for (Integer p : leases.keySet()) {
+                try {
+                    orderPendingRecovery.recover(streamKey(p), name);
+                } catch (Exception e) {
+                    log.error("恢复待确认订单失败, stream={}", streamKey(p), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 订单 id 由时间戳和脚本中生成的序列号拼接，旧格式的消息直接带有 id
+     */
+    private static VoucherOrder toOrder(MapRecord<String, Object, Object> record) {
+        return toOrder(record.getValue());
+    }
+
+    static VoucherOrder toOrder(Map<Object, Object> values) {
+        VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(values, new VoucherOrder(), true);
+        Object seq = values.get("seq");
+        if (seq != null) {
+            voucherOrder.setId(RedisIdWorker.toId(Long.parseLong(values.get("timestamp").toString()),
+                    Long.parseLong(seq.toString())));
+        }
+        return voucherOrder;
+    }
+
+    /**
+     * 分区的消费延迟：最新消息与消费者组最后读取的消息之间的时间差
+     */
+    private long lagMillis(String stream) {
+        try {
+            StreamInfo.XInfoStream info = stringRedisTemplate.opsForStream().info(stream);
+            StreamInfo.XInfoGroups groups = stringRedisTemplate.opsForStream().groups(stream);
+            for (int i = 0; i < groups.size(); i++) {
+                StreamInfo.XInfoGroup g = groups.get(i);
+                if (group.equals(g.groupName())) {
+                    return Math.max(0, idTime(info.lastGeneratedId()) - idTime(g.lastDeliveredId()));
+                }
+            }
+        } catch (Exception e) {
+            log.debug("查询消费延迟失败, stream={}", stream, e);
+        }
+        return 0;
+    }
+
+    private PendingMessagesSummary pendingSummary(String stream) {
+        return stringRedisTemplate.opsForStream().pending(stream, group);
+    }
+
+    private long pendingCount(PendingMessagesSummary pending) {
+        return pending == null ? 0 : pending.getTotalPendingMessages();
+    }
+
+    /**
+     * 最早一条待确认消息距今的时间，消息 id 的前半部分是写入时的毫秒时间戳
+     */
+    private long oldestPendingAgeMillis(PendingMessagesSummary pending) {
+        if (pending == null || pending.getTotalPendingMessages() == 0) {
+            return 0;
+        }
+        String minId = pending.getIdRange().getLowerBound().getValue().orElse(null);
+        return minId == null ? 0 : Math.max(0, System.currentTimeMillis() - idTime(minId));
+    }
+
+    private static long idTime(String id) {
+        if (id == null) {
+            return 0;
+        }
+        int i = id.indexOf('-');
+        return Long.parseLong(i < 0 ? id : id.substring(0, i));
+    }
+
+    public Status getStatus() {
+        Status status = new Status();
+        for (Worker worker : workers) {
+            ConsumerStatus consumer = new ConsumerStatus();
+            consumer.setName(worker.name);
+            consumer.setPartitions(new ArrayList<>(worker.leases.keySet()));
+            consumer.setProcessed(worker.processed.get());
+            consumer.setFailed(worker.failed.get());
+            consumer.setLastProcessTime(worker.lastProcessTime);
+            status.getConsumers().add(consumer);
+        }
+        for (int p = 0; p < partitions; p++) {
+            String stream = streamKey(p);
+            PartitionStatus partition = new PartitionStatus();
+            partition.setStream(stream);
+            partition.setLagMillis(lagMillis(stream));
+            PendingMessagesSummary pending = pendingSummary(stream);
+            if (pending != null) {
+                partition.setPending(pending.getTotalPendingMessages());
+                partition.setPendingPerConsumer(pending.getPendingMessagesPerConsumer());
+                partition.setOldestPendingAgeMillis(oldestPendingAgeMillis(pending));
+            }
+            status.getPartitions().add(partition);
+        }
+        Long deadLetters = stringRedisTemplate.opsForStream().size(SECKILL_ORDER_DLQ_KEY);
+        status.setDeadLetters(deadLetters == null ? 0 : deadLetters);
+        return status;
+    }
+
+    @Data
+    public static class Status {
+        private List<ConsumerStatus> consumers = new ArrayList<>();
+        private List<PartitionStatus> partitions = new ArrayList<>();
+        private long deadLetters;
+    }
+
+    @Data
+    public static class ConsumerStatus {
+        private String name;
+        private List<Integer> partitions;
+        private long processed;
+        private long failed;
+        private long lastProcessTime;
+    }
+
+    @Data
+    public static class PartitionStatus {
+        private String stream;
+        private long pending;
+        private Map<String, Long> pendingPerConsumer;
+        private long lagMillis;
+        private long oldestPendingAgeMillis;
+    }
+}
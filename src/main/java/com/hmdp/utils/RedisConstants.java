@@ -10,11 +10,39 @@ public class RedisConstants {
 
     public static final Long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
+    public static final String CACHE_SHOP_TYPE_VERSION_KEY = "cache:shop-type:version";
+
+    public static final String SHOP_TYPE_INDEX_KEY = "shop:type:index:";
+    public static final String SHOP_TYPE_OWNER_KEY = "shop:type:owner";
+    public static final String SHOP_TYPE_INDEX_READY_KEY = "shop:type:built";
+    public static final String LOCK_SHOP_TYPE_INDEX_KEY = "lock:shop:type:index";
+
+    public static final String CACHE_INVALIDATE_CHANNEL = "cache:invalidate";
+    public static final String SHOP_BLOOM_CHANNEL = "shop:bloom:add";
+    public static final String CACHE_HOT_KEY_CHANNEL = "cache:hotkey";
+    public static final String SHOP_CHANGED_CHANNEL = "shop:changed";
+    public static final String SHOP_CDC_HWM_KEY = "cache:shop:cdc:hwm";
+    public static final String LOCK_SHOP_CDC_KEY = "lock:shop:cdc";
 
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    public static final String SECKILL_SHARDS_KEY = "seckill:shards:";
+    public static final String SECKILL_PARTITIONS_KEY = "seckill:partitions:";
+    public static final String SECKILL_VOUCHER_KEY = "seckill:voucher:";
+    public static final String LOCK_SECKILL_STAGE_KEY = "lock:seckill:stage";
+    public static final String SECKILL_SOLD_OUT_CHANNEL = "seckill:soldout";
+    public static final String SECKILL_LIMIT_KEY = "seckill:limit:";
+    public static final String SECKILL_LIMIT_BUCKET_KEY = "seckill:limit:bucket:";
+    public static final String SECKILL_ORDER_STREAM_KEY = "stream.orders:";
+    public static final String SECKILL_ORDER_DLQ_KEY = "stream.orders.dlq";
+    // 按 userId 分区之前的单个订单 stream
+    public static final String SECKILL_ORDER_LEGACY_STREAM_KEY = "stream.orders";
+    public static final String ORDER_STATUS_KEY = "order:status:";
+    public static final String ORDER_STATUS_CHANNEL = "order:status";
+    public static final String LOCK_ORDER_STREAM_KEY = "lock:stream.orders:";
     public static final String BLOG_LIKED_KEY = "blog:liked:";
     public static final String FEED_KEY = "feed:";
     public static final String SHOP_GEO_KEY = "shop:geo:";
@@ -1,5 +1,7 @@
 package com.hmdp.utils;
 
+import lombok.AllArgsConstructor;
+import lombok.Getter;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
@@ -27,4 +29,29 @@ public class RedisIdWorker {
         //拼接并返回
         return timestamp<<COUNT_BITS|count;
     }
+
+    /**
+     * 序列号由 Lua 脚本自增时使用：先确定时间戳和序列号 key，脚本返回序列号后再用 {@link Slot#toId} 拼接
+     */
+    public Slot slot(String keyPrefix){
+        LocalDateTime now=LocalDateTime.now();
+        long timestamp=now.toEpochSecond(ZoneOffset.UTC)-BEGIN_TIMESTAMP;
+        String date=now.format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
+        return new Slot(timestamp, "icr:"+keyPrefix+":"+date);
+    }
+
+    public static long toId(long timestamp, long count){
+        return timestamp<<COUNT_BITS|count;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class Slot{
+        private final long timestamp;
+        private final String countKey;
+
+        public long toId(long count){
+            return RedisIdWorker.toId(timestamp, count);
+        }
+    }
 }
@@ -0,0 +1,224 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_LIMIT_BUCKET_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_LIMIT_KEY;
+
+/**
+ * 秒杀接口的准入控制，在执行 seckill.lua 之前挡掉超出处理能力的请求：
+ * 1. 每个节点每张券一个本地令牌桶，超出的请求不访问 Redis；
+ * 2. 配置了全局限流的券再经过 Redis 上的全局令牌桶（seckill_limit.lua），限制所有节点加起来的速率。
+ * <p>
+ * 每张券的限流配置保存在 hash seckill:limit:{voucherId}（rate、burst、localRate、localBurst），
+ * 没有配置的字段使用 hmdp.seckill.rate-limit 下的默认值，节点每隔 refresh-millis 重新读取一次
+ */
+@Slf4j
+@Component
+public class SeckillRateLimiter {
+
+    private static final DefaultRedisScript<Long> LIMIT_SCRIPT;
+    static {
+        LIMIT_SCRIPT = new DefaultRedisScript<>();
+        LIMIT_SCRIPT.setLocation(new ClassPathResource("seckill_limit.lua"));
+        LIMIT_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    @Value("${hmdp.seckill.rate-limit.enabled:false}")
+    private boolean enabled;
+    // 本地令牌桶，每个节点每张券每秒放行的请求数
+    @Value("${hmdp.seckill.rate-limit.local-rate:500}")
+    private double defaultLocalRate;
+    @Value("${hmdp.seckill.rate-limit.local-burst:1000}")
+    private double defaultLocalBurst;
+    // 全局令牌桶，所有节点加起来每张券每秒放行的请求数，0 表示不限制
+    @Value("${hmdp.seckill.rate-limit.rate:0}")
+    private double defaultRate;
+    @Value("${hmdp.seckill.rate-limit.burst:0}")
+    private double defaultBurst;
+    // 多久重新读取一次每张券的限流配置
+    @Value("${hmdp.seckill.rate-limit.refresh-millis:5000}")
+    private long refreshMillis;
+
+    private final Map<Long, LocalBucket> buckets = new ConcurrentHashMap<>();
+
+    private Counter localRejectedCounter;
+    private Counter globalRejectedCounter;
+
+    @PostConstruct
+    private void init() {
+        localRejectedCounter = Counter.builder("seckill.rate.limit.rejected").tag("bucket", "local").register(meterRegistry);
+        globalRejectedCounter = Counter.builder("seckill.rate.limit.rejected").tag("bucket", "global").register(meterRegistry);
+    }
+
+    /**
+     * 申请一次秒杀请求的令牌
+     * @throws TooManyRequestsException 本地或全局令牌不足
+     */
+    public void acquire(Long voucherId) {
+        if (!enabled) {
+            return;
+        }
+        LocalBucket bucket = bucketOf(voucherId);
+        Limit limit = bucket.limit;
+        // 1.本地令牌桶，不访问 Redis
+        long wait = bucket.tryAcquire();
+        if (wait > 0) {
+            localRejectedCounter.increment();
+            throw new TooManyRequestsException("请求太多，请稍后再试", wait);
+        }
+        // 2.全局令牌桶
+        if (limit.getRate() <= 0) {
+            return;
+        }
+        Long globalWait = stringRedisTemplate.execute(LIMIT_SCRIPT,
+                Collections.singletonList(SECKILL_LIMIT_BUCKET_KEY + voucherId),
+                String.valueOf(limit.getRate()), String.valueOf(Math.max(limit.getBurst(), 1)));
+        if (globalWait != null && globalWait > 0) {
+            globalRejectedCounter.increment();
+            throw new TooManyRequestsException("请求太多，请稍后再试", globalWait);
+        }
+    }
+
+    /**
+     * 修改一张券的限流配置，为空的字段不修改，小于 0 的字段删除（恢复默认值）。各节点在下次刷新时生效
+     */
+    public Limit updateLimit(Long voucherId, Double rate, Double burst, Double localRate, Double localBurst) {
+        String key = SECKILL_LIMIT_KEY + voucherId;
+        Map<String, String> values = new HashMap<>(8);
+        putField(key, values, "rate", rate);
+        putField(key, values, "burst", burst);
+        putField(key, values, "localRate", localRate);
+        putField(key, values, "localBurst", localBurst);
+        if (!values.isEmpty()) {
+            stringRedisTemplate.opsForHash().putAll(key, values);
+        }
+        // 本节点立即生效
+        buckets.remove(voucherId);
+        return loadLimit(voucherId);
+    }
+
+    private void putField(String key, Map<String, String> values, String field, Double value) {
+        if (value == null) {
+            return;
+        }
+        if (value < 0) {
+            stringRedisTemplate.opsForHash().delete(key, field);
+        } else {
+            values.put(field, String.valueOf(value));
+        }
+    }
+
+    public Limit getLimit(Long voucherId) {
+        return loadLimit(voucherId);
+    }
+
+    private LocalBucket bucketOf(Long voucherId) {
+        LocalBucket bucket = buckets.get(voucherId);
+        long now = System.currentTimeMillis();
+        if (bucket != null && bucket.refreshAt > now) {
+            return bucket;
+        }
+        // 配置过期了重新读取，保留已有的令牌数
+        Limit limit;
+        try {
+            limit = loadLimit(voucherId);
+        } catch (Exception e) {
+            if (bucket == null) {
+                throw e;
+            }
+            log.warn("读取秒杀限流配置失败，继续使用旧配置, voucherId={}", voucherId, e);
+            limit = bucket.limit;
+        }
+        LocalBucket refreshed = bucket == null ? new LocalBucket(limit) : bucket.withLimit(limit);
+        refreshed.refreshAt = now + refreshMillis;
+        buckets.put(voucherId, refreshed);
+        return refreshed;
+    }
+
+    private Limit loadLimit(Long voucherId) {
+        Map<Object, Object> values = stringRedisTemplate.opsForHash().entries(SECKILL_LIMIT_KEY + voucherId);
+        Limit limit = new Limit();
+        limit.setRate(doubleOf(values.get("rate"), defaultRate));
+        limit.setBurst(doubleOf(values.get("burst"), defaultBurst > 0 ? defaultBurst : limit.getRate()));
+        limit.setLocalRate(doubleOf(values.get("localRate"), defaultLocalRate));
+        limit.setLocalBurst(doubleOf(values.get("localBurst"), defaultLocalBurst));
+        return limit;
+    }
+
+    private static double doubleOf(Object value, double defaultValue) {
+        return value == null || StrUtil.isBlank(value.toString()) ? defaultValue : Double.parseDouble(value.toString());
+    }
+
+    @Data
+    public static class Limit {
+        // 全局每秒放行数，0 表示不限制
+        private double rate;
+        private double burst;
+        // 单节点每秒放行数，0 表示不限制
+        private double localRate;
+        private double localBurst;
+    }
+
+    /**
+     * 本地令牌桶，按经过的时间补充令牌
+     */
+    private static class LocalBucket {
+        final Limit limit;
+        volatile long refreshAt;
+        private double tokens;
+        private long last;
+
+        LocalBucket(Limit limit) {
+            this.limit = limit;
+            this.tokens = Math.max(limit.getLocalBurst(), 1);
+            this.last = System.nanoTime();
+        }
+
+        synchronized LocalBucket withLimit(Limit limit) {
+            LocalBucket bucket = new LocalBucket(limit);
+            bucket.tokens = Math.min(tokens, Math.max(limit.getLocalBurst(), 1));
+            bucket.last = last;
+            return bucket;
+        }
+
+        /**
+         * @return 0 表示拿到了令牌，否则是还要等待的毫秒数
+         */
+        synchronized long tryAcquire() {
+            double rate = limit.getLocalRate();
+            if (rate <= 0) {
+                return 0;
+            }
+            long now = System.nanoTime();
+            tokens = Math.min(Math.max(limit.getLocalBurst(), 1), tokens + (now - last) * rate / 1_000_000_000D);
+            last = now;
+            if (tokens >= 1) {
+                tokens -= 1;
+                return 0;
+            }
+            return (long) Math.ceil((1 - tokens) * 1000 / rate);
+        }
+    }
+}
@@ -0,0 +1,423 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.ArrayUtil;
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.service.ISeckillVoucherService;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 秒杀库存的扣减。大库存的券可以把库存拆到多个分片上，已下单用户集合也按 userId 拆到同样数量的分片，
+ * 每个用户固定属于一个分片（home 分片）。先在 home 分片上判断重复并扣库存；home 分片没有库存时，
+ * 依次从其他分片扣一件，再回到 home 分片登记，登记失败（重复下单、秒杀结束）就把扣到的库存退回。
+ * 每个分片的扣减都是原子的，库存总数就是各分片之和，不会超卖。
+ * <p>
+ * 每个分片放在一个订单 stream 分区的 slot 里：分片的库存（seckill:stock:{stream.orders:N}:voucherId，{stream.orders:N} 是 hash tag）、
+ * 已下单用户集合、订单序列号和订单状态都带有分区 N 的 hash tag，订单也写入分区 N 的 stream，
+ * 所以每次脚本调用只访问一个 slot，在 Redis Cluster 中各分片落在不同的 slot 上，分片数不超过分区数。
+ * 各分片使用的分区保存在 seckill:partitions:{voucherId}。单机 Redis 上所有脚本仍在同一个线程里执行，分片只减少单个 key 的竞争。
+ * 秒杀的时间窗口和初始库存发布在 hash seckill:voucher:{voucherId}，本地缓存后作为参数传给脚本，脚本按 Redis 的时间判断是否在窗口内。
+ * <p>
+ * 这种格式上线前创建的券没有 seckill:partitions，继续使用不带 hash tag 的 seckill:stock:{voucherId}[:{分片}]，订单按 userId 分区。
+ * <p>
+ * 券卖完后在本地记一个售罄标记并广播给所有节点，之后的请求不再访问 Redis；补库存时清除标记。
+ * 标记只在 sold-out-ttl-millis 内有效，过期后放一个请求去 Redis 重新确认，补库存的广播丢失或乱序时也能恢复。
+ * 订单 id 的序列号在脚本里确认有购买资格后才自增，被拒绝的请求不消耗 id
+ */
+@Slf4j
+@Component
+public class SeckillStock implements MessageListener {
+
+    public static final int SUCCESS = 0;
+    public static final int SOLD_OUT = 1;
+    public static final int DUPLICATE = 2;
+    public static final int NOT_STARTED = 3;
+    public static final int ENDED = 4;
+    // 时间窗口还没有写入 Redis，只在内部使用
+    private static final int NO_WINDOW = 5;
+
+    private static final String SOLD_OUT_MESSAGE = "SOLD_OUT:";
+    private static final String RESTOCK_MESSAGE = "RESTOCK:";
+
+    // 返回 {结果, 订单 id 序列号}
+    @SuppressWarnings("rawtypes")
+    private static final DefaultRedisScript<List> SECKILL_SCRIPT;
+    private static final DefaultRedisScript<Long> STEAL_SCRIPT;
+    @SuppressWarnings("rawtypes")
+    private static final DefaultRedisScript<List> COMMIT_SCRIPT;
+    static {
+        SECKILL_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua"));
+        SECKILL_SCRIPT.setResultType(List.class);
+        STEAL_SCRIPT = new DefaultRedisScript<>();
+        STEAL_SCRIPT.setLocation(new ClassPathResource("seckill_steal.lua"));
+        STEAL_SCRIPT.setResultType(Long.class);
+        COMMIT_SCRIPT = new DefaultRedisScript<>();
+        COMMIT_SCRIPT.setLocation(new ClassPathResource("seckill_commit.lua"));
+        COMMIT_SCRIPT.setResultType(List.class);
+    }
+
+    // 没有分片信息的券、本地缓存的时间窗口，隔多久再去 Redis 查一次
+    private static final long RECHECK_MILLIS = 5000;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private RedisIdWorker redisIdWorker;
+    @Resource
+    private OrderStatusTracker orderStatusTracker;
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+
+    // 新增秒杀券时的分片数，1 表示不分片
+    @Value("${hmdp.seckill.stock-shards:1}")
+    private int stockShards;
+    // 每个分片至少分到的库存，库存少的券不值得分片
+    @Value("${hmdp.seckill.min-stock-per-shard:100}")
+    private int minStockPerShard;
+    // 售罄标记的有效期，过期后重新到 Redis 确认一次
+    @Value("${hmdp.seckill.sold-out-ttl-millis:1000}")
+    private long soldOutTtlMillis;
+    // 订单 stream 的分区数，与 OrderStreamConsumer 相同
+    @Value("${hmdp.seckill.stream.partitions:4}")
+    private int partitions;
+
+    private final SingleFlight singleFlight = new SingleFlight();
+    private final Map<Long, Layout> layouts = new ConcurrentHashMap<>();
+    private final Map<Long, Window> windows = new ConcurrentHashMap<>();
+    // 本节点已知售罄的券，value 为标记的过期时间
+    private final Map<Long, Long> soldOutUntil = new ConcurrentHashMap<>();
+
+    /**
+     * 新增秒杀券时把库存写入 Redis，按配置拆成若干分片
+     */
+    public void init(Long voucherId, int stock) {
+        init(voucherId, stock, false);
+    }
+
+    /**
+     * @param onlyIfAbsent 为 true 时每个 key 都用 SETNX 写入，已存在就不写，多个节点同时补写也不会把已扣减的库存改回去
+     */
+    private void init(Long voucherId, int stock, boolean onlyIfAbsent) {
+        int shards = Math.max(1, Math.min(Math.min(stockShards, partitions), stock / Math.max(minStockPerShard, 1)));
+        // 1.各分片依次放在券 id 对应分区之后的分区上，互不相同
+        int[] shardPartitions = new int[shards];
+        int base = (int) Math.floorMod(voucherId, (long) partitions);
+        for (int i = 0; i < shards; i++) {
+            shardPartitions[i] = (base + i) % partitions;
+        }
+        Layout layout = new Layout(shards, shardPartitions);
+        // 2.先写库存，最后写分区信息，其他节点看到分区信息时库存已经就绪
+        Map<String, String> values = new HashMap<>(shards * 2);
+        for (int i = 0; i < shards; i++) {
+            // 余数分给前面几个分片
+            values.put(layout.stockKey(voucherId, i), String.valueOf(stock / shards + (i < stock % shards ? 1 : 0)));
+        }
+        String partitionsKey = SECKILL_PARTITIONS_KEY + voucherId;
+        String partitionsValue = ArrayUtil.join(shardPartitions, ",");
+        if (onlyIfAbsent) {
+            values.forEach((key, value) -> stringRedisTemplate.opsForValue().setIfAbsent(key, value));
+            if (!Boolean.TRUE.equals(stringRedisTemplate.opsForValue().setIfAbsent(partitionsKey, partitionsValue))) {
+                return;
+            }
+        } else {
+            stringRedisTemplate.opsForValue().multiSet(values);
+            stringRedisTemplate.opsForValue().set(partitionsKey, partitionsValue);
+        }
+        layouts.put(voucherId, layout);
+    }
+
+    /**
+     * 发布秒杀的时间窗口和初始库存，脚本据此拒绝窗口外的请求
+     */
+    public void publish(SeckillVoucher voucher) {
+        long begin = toEpochMilli(voucher.getBeginTime());
+        long end = toEpochMilli(voucher.getEndTime());
+        Map<String, String> values = new HashMap<>(4);
+        values.put("begin", String.valueOf(begin));
+        values.put("end", String.valueOf(end));
+        values.put("stock", String.valueOf(voucher.getStock()));
+        stringRedisTemplate.opsForHash().putAll(SECKILL_VOUCHER_KEY + voucher.getVoucherId(), values);
+        windows.put(voucher.getVoucherId(), new Window(begin, end, System.currentTimeMillis() + RECHECK_MILLIS));
+    }
+
+    /**
+     * 券的时间窗口或库存还没有写入 Redis 时补写，已经写入的不覆盖，避免把 Redis 中领先的库存改回数据库的值
+     * @return 是否补写了
+     */
+    public boolean stage(SeckillVoucher voucher) {
+        Long voucherId = voucher.getVoucherId();
+        boolean staged = false;
+        if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(SECKILL_VOUCHER_KEY + voucherId))) {
+            publish(voucher);
+            staged = true;
+        }
+        if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(SECKILL_PARTITIONS_KEY + voucherId))
+                && !Boolean.TRUE.equals(stringRedisTemplate.hasKey(SECKILL_SHARDS_KEY + voucherId))
+                && !Boolean.TRUE.equals(stringRedisTemplate.hasKey(SECKILL_STOCK_KEY + voucherId))) {
+            init(voucherId, voucher.getStock(), true);
+            staged = true;
+        }
+        // 提前读取分片信息和时间窗口，开抢时不用再查
+        layouts.remove(voucherId);
+        layoutOf(voucherId);
+        windows.remove(voucherId);
+        windowOf(voucherId);
+        return staged;
+    }
+
+    /**
+     * 同一张券并发的请求只查一次数据库
+     * @return 数据库中是否有这张秒杀券
+     */
+    private boolean stageFromDb(Long voucherId) {
+        return singleFlight.execute(SECKILL_VOUCHER_KEY + voucherId, () -> {
+            SeckillVoucher voucher = seckillVoucherService.getById(voucherId);
+            if (voucher == null) {
+                return false;
+            }
+            stage(voucher);
+            return true;
+        });
+    }
+
+    private static long toEpochMilli(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    /**
+     * 补充库存，平均加到各个分片上，并通知所有节点清除售罄标记
+     */
+    public void addStock(Long voucherId, int amount) {
+        Layout layout = layoutOf(voucherId);
+        int shards = layout.shards;
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (int i = 0; i < shards; i++) {
+                int delta = amount / shards + (i < amount % shards ? 1 : 0);
+                if (delta > 0) {
+                    conn.incrBy(layout.stockKey(voucherId, i), delta);
+                }
+            }
+            return null;
+        });
+        stringRedisTemplate.opsForHash().increment(SECKILL_VOUCHER_KEY + voucherId, "stock", amount);
+        soldOutUntil.remove(voucherId);
+        stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, RESTOCK_MESSAGE + voucherId);
+    }
+
+    public boolean isSoldOut(Long voucherId) {
+        Long until = soldOutUntil.get(voucherId);
+        return until != null && until > System.currentTimeMillis();
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        if (body.startsWith(SOLD_OUT_MESSAGE)) {
+            soldOutUntil.put(Long.valueOf(body.substring(SOLD_OUT_MESSAGE.length())),
+                    System.currentTimeMillis() + soldOutTtlMillis);
+        } else if (body.startsWith(RESTOCK_MESSAGE)) {
+            soldOutUntil.remove(Long.valueOf(body.substring(RESTOCK_MESSAGE.length())));
+        }
+    }
+
+    /**
+     * 扣减库存并登记用户，成功后订单写入 home 分片所在分区的 stream
+     * @return 结果为 {@link #SUCCESS} 时带有订单 id
+     */
+    public Outcome tryAcquire(Long voucherId, Long userId) {
+        // 1.本地已知售罄，直接返回；标记过期时只放一个请求去 Redis 确认，其他请求继续按售罄处理
+        Long until = soldOutUntil.get(voucherId);
+        long now = System.currentTimeMillis();
+        if (until != null && (until > now || !soldOutUntil.replace(voucherId, until, now + soldOutTtlMillis))) {
+            return new Outcome(SOLD_OUT, 0);
+        }
+        Outcome outcome = acquire(voucherId, userId);
+        if (outcome.getCode() == NO_WINDOW) {
+            // 时间窗口不在 Redis 中（预写入之前创建的券、Redis 数据丢失），从数据库补写后重试一次
+            if (!stageFromDb(voucherId)) {
+                return new Outcome(SOLD_OUT, 0);
+            }
+            outcome = acquire(voucherId, userId);
+            if (outcome.getCode() == NO_WINDOW) {
+                return new Outcome(NOT_STARTED, 0);
+            }
+        }
+        if (outcome.getCode() != SOLD_OUT) {
+            // 2.确认还有库存，清除过期的标记
+            if (until != null) {
+                soldOutUntil.remove(voucherId);
+            }
+            return outcome;
+        }
+        // 3.所有分片都没有库存了，第一次发现时通知所有节点
+        if (soldOutUntil.put(voucherId, System.currentTimeMillis() + soldOutTtlMillis) == null) {
+            stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, SOLD_OUT_MESSAGE + voucherId);
+        }
+        return outcome;
+    }
+
+    private Outcome acquire(Long voucherId, Long userId) {
+        Window window = windowOf(voucherId);
+        if (window == null) {
+            return new Outcome(NO_WINDOW, 0);
+        }
+        Layout layout = layoutOf(voucherId);
+        int home = (int) Math.floorMod(userId, (long) layout.shards);
+        // 1.订单写入 home 分片所在的分区，序列号和订单状态也在该分区的 slot 里
+        int partition = layout.partitions != null ? layout.partitions[home] : (int) Math.floorMod(userId, (long) partitions);
+        String tag = OrderStreamConsumer.slotTag(partition);
+        RedisIdWorker.Slot slot = redisIdWorker.slot("order:" + tag);
+        String[] args = {voucherId.toString(), userId.toString(), String.valueOf(slot.getTimestamp()),
+                ORDER_STATUS_KEY + tag + ":", String.valueOf(orderStatusTracker.getTtlSeconds()),
+                String.valueOf(window.begin), String.valueOf(window.end), String.valueOf(partition)};
+        String streamKey = OrderStreamConsumer.streamKey(partition);
+        String orderKey = layout.orderKey(voucherId, home);
+        // 2.在 home 分片上判断时间窗口、重复、扣库存
+        Outcome outcome = toOutcome(stringRedisTemplate.execute(SECKILL_SCRIPT,
+                Arrays.asList(streamKey, layout.stockKey(voucherId, home), orderKey, slot.getCountKey()),
+                (Object[]) args), slot);
+        if (outcome.getCode() != SOLD_OUT || layout.shards == 1) {
+            return outcome;
+        }
+        // 3.home 分片没有库存，从随机位置开始依次到其他分片扣库存，避免都挤到同一个分片；每次只访问一个分片
+        int offset = ThreadLocalRandom.current().nextInt(layout.shards - 1);
+        for (int k = 0; k < layout.shards - 1; k++) {
+            int shard = (home + 1 + (offset + k) % (layout.shards - 1)) % layout.shards;
+            String stockKey = layout.stockKey(voucherId, shard);
+            Long stolen = stringRedisTemplate.execute(STEAL_SCRIPT, Collections.singletonList(stockKey));
+            if (stolen == null || stolen != 1L) {
+                continue;
+            }
+            // 4.扣到了，回到 home 分片登记并发送订单；登记失败把库存退回原分片，
+            // 两次调用之间节点宕机会少卖一件，但不会超卖
+            outcome = toOutcome(stringRedisTemplate.execute(COMMIT_SCRIPT,
+                    Arrays.asList(streamKey, orderKey, slot.getCountKey()), (Object[]) args), slot);
+            if (outcome.getCode() != SUCCESS) {
+                stringRedisTemplate.opsForValue().increment(stockKey);
+            }
+            return outcome;
+        }
+        return new Outcome(SOLD_OUT, 0);
+    }
+
+    private static Outcome toOutcome(List<?> result, RedisIdWorker.Slot slot) {
+        int code = ((Number) result.get(0)).intValue();
+        long seq = ((Number) result.get(1)).longValue();
+        return new Outcome(code, code == SUCCESS ? slot.toId(seq) : 0);
+    }
+
+    /**
+     * @return 本地缓存的时间窗口，Redis 中没有时返回 null
+     */
+    private Window windowOf(Long voucherId) {
+        Window window = windows.get(voucherId);
+        long now = System.currentTimeMillis();
+        if (window != null && window.expireAt > now) {
+            return window;
+        }
+        List<Object> values = stringRedisTemplate.opsForHash()
+                .multiGet(SECKILL_VOUCHER_KEY + voucherId, Arrays.asList("begin", "end"));
+        if (values.get(0) == null || values.get(1) == null) {
+            windows.remove(voucherId);
+            return null;
+        }
+        window = new Window(Long.parseLong(values.get(0).toString()), Long.parseLong(values.get(1).toString()),
+                now + RECHECK_MILLIS);
+        windows.put(voucherId, window);
+        return window;
+    }
+
+    private Layout layoutOf(Long voucherId) {
+        Layout layout = layouts.get(voucherId);
+        if (layout != null && (layout.recheckAt == 0 || layout.recheckAt > System.currentTimeMillis())) {
+            return layout;
+        }
+        List<String> values = stringRedisTemplate.opsForValue()
+                .multiGet(Arrays.asList(SECKILL_PARTITIONS_KEY + voucherId, SECKILL_SHARDS_KEY + voucherId));
+        if (values.get(0) != null) {
+            int[] shardPartitions = StrUtil.split(values.get(0), ',').stream().mapToInt(Integer::parseInt).toArray();
+            layout = new Layout(shardPartitions.length, shardPartitions);
+        } else if (values.get(1) != null) {
+            // 加 hash tag 之前创建的分片券
+            layout = new Layout(Integer.parseInt(values.get(1)), null);
+        } else {
+            // 分片功能上线前创建的券，可能稍后由预写入补上分区信息，过一段时间再查
+            layout = new Layout(1, null);
+            layout.recheckAt = System.currentTimeMillis() + RECHECK_MILLIS;
+        }
+        layouts.put(voucherId, layout);
+        return layout;
+    }
+
+    /**
+     * 一张券的库存分片方式
+     */
+    private static class Layout {
+        final int shards;
+        // 各分片所在的订单 stream 分区，为 null 时是不带 hash tag 的旧格式
+        final int[] partitions;
+        // 大于 0 时到这个时间重新读取
+        long recheckAt;
+
+        Layout(int shards, int[] partitions) {
+            this.shards = shards;
+            this.partitions = partitions;
+        }
+
+        String stockKey(Long voucherId, int shard) {
+            return key(SECKILL_STOCK_KEY, voucherId, shard);
+        }
+
+        String orderKey(Long voucherId, int shard) {
+            return key(SECKILL_ORDER_KEY, voucherId, shard);
+        }
+
+        private String key(String prefix, Long voucherId, int shard) {
+            if (partitions != null) {
+                return prefix + OrderStreamConsumer.slotTag(partitions[shard]) + ":" + voucherId;
+            }
+            return shards == 1 ? prefix + voucherId : prefix + voucherId + ":" + shard;
+        }
+    }
+
+    @AllArgsConstructor
+    private static class Window {
+        final long begin;
+        final long end;
+        final long expireAt;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class Outcome {
+        private final int code;
+        private final long orderId;
+    }
+}
@@ -0,0 +1,76 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.service.ISeckillVoucherService;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static com.hmdp.utils.RedisConstants.LOCK_SECKILL_STAGE_KEY;
+
+/**
+ * 启动时和之后定时把即将开始和正在进行的秒杀券预先写入 Redis（时间窗口和库存），
+ * 用于 Redis 数据丢失、或功能上线前创建的券；新增秒杀券时已经直接写入，这里不会覆盖。
+ * 启动时的写入在 ApplicationRunner 中同步完成，之后才开始接收流量；仍然缺失的券由 SeckillStock 在请求时从数据库补写
+ */
+@Slf4j
+@Component
+public class SeckillVoucherStager implements ApplicationRunner {
+
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+    @Resource
+    private SeckillStock seckillStock;
+    @Resource
+    private RedissonClient redissonClient;
+
+    // 提前多久写入
+    @Value("${hmdp.seckill.stage.lead-millis:600000}")
+    private long leadMillis;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        stage();
+    }
+
+    @Scheduled(initialDelayString = "${hmdp.seckill.stage.interval-millis:60000}",
+            fixedDelayString = "${hmdp.seckill.stage.interval-millis:60000}")
+    public void stage() {
+        // 多个节点同时补写会重复初始化库存，只让一个节点执行
+        RLock lock = redissonClient.getLock(LOCK_SECKILL_STAGE_KEY);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            // 1.查询提前量内会开始、且还没结束的秒杀券
+            LocalDateTime now = LocalDateTime.now();
+            List<SeckillVoucher> vouchers = seckillVoucherService.query()
+                    .le("begin_time", now.plusNanos(leadMillis * 1_000_000))
+                    .gt("end_time", now)
+                    .list();
+            // 2.逐个补写
+            int staged = 0;
+            for (SeckillVoucher voucher : vouchers) {
+                if (seckillStock.stage(voucher)) {
+                    staged++;
+                }
+            }
+            if (staged > 0) {
+                log.info("预先写入 {} 张秒杀券到 Redis", staged);
+            }
+        } catch (Exception e) {
+            log.error("预先写入秒杀券失败", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.IdUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+import static com.hmdp.utils.RedisConstants.SHOP_BLOOM_CHANNEL;
+
+/**
+ * 店铺 id 的布隆过滤器，启动时从 tb_shop 全量构建，新增店铺时广播给所有节点。
+ * CacheClient 查询 cache:shop: 前先经过它，不存在的 id 直接拒绝，不再访问 Redis 和数据库。
+ * <p>
+ * 广播消息可能丢失（启动、断线重连期间），丢了会把真实店铺判断为不存在，所以定期从数据库重新构建兜底。
+ * <p>
+ * 默认关闭，关闭时不扫描 tb_shop，也不向 CacheClient 注册过滤器
+ */
+@Slf4j
+@Component
+public class ShopBloomFilter implements MessageListener {
+
+    private static final int LOAD_BATCH_SIZE = 1000;
+
+    @Resource
+    private ShopMapper shopMapper;
+    @Resource
+    private CacheClient cacheClient;
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Value("${hmdp.cache.bloom.enabled:false}")
+    private boolean enabled;
+    @Value("${hmdp.bloom.shop.expected-insertions:100000}")
+    private long expectedInsertions;
+    @Value("${hmdp.bloom.shop.fpp:0.01}")
+    private double fpp;
+    @Value("${hmdp.bloom.shop.max-memory-kb:1024}")
+    private long maxMemoryKb;
+
+    private volatile BloomFilter filter;
+    // 本节点的标识，广播时带上，收到自己发出的消息时跳过
+    private final String nodeId = IdUtil.fastSimpleUUID();
+    // 重新构建期间新增的 id，构建完成后补到新的过滤器里
+    private volatile Set<Long> pendingIds;
+
+    @PostConstruct
+    private void init() {
+        if (!enabled) {
+            return;
+        }
+        rebuild();
+        cacheClient.registerIdFilter(CACHE_SHOP_KEY, id -> mightContain(Long.valueOf(id.toString())));
+    }
+
+    @Scheduled(initialDelayString = "${hmdp.bloom.shop.rebuild-millis:600000}",
+            fixedDelayString = "${hmdp.bloom.shop.rebuild-millis:600000}")
+    public void scheduledRebuild() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            rebuild();
+        } catch (Exception e) {
+            log.error("店铺布隆过滤器重新构建失败", e);
+        }
+    }
+
+    /**
+     * 按 id 分批扫描 tb_shop，重新构建过滤器
+     */
+    public synchronized void rebuild() {
+        pendingIds = ConcurrentHashMap.newKeySet();
+        BloomFilter newFilter = new BloomFilter(expectedInsertions, fpp, maxMemoryKb * 1024);
+        long lastId = 0;
+        while (true) {
+            List<Object> ids = shopMapper.selectObjs(new QueryWrapper<Shop>()
+                    .select("id").gt("id", lastId).orderByAsc("id").last("limit " + LOAD_BATCH_SIZE));
+            for (Object id : ids) {
+                lastId = Long.parseLong(id.toString());
+                newFilter.put(lastId);
+            }
+            if (ids.size() < LOAD_BATCH_SIZE) {
+                break;
+            }
+        }
+        filter = newFilter;
+        // 扫描期间新增的店铺可能已经被扫描越过，补进新过滤器；已经扫描到或重复收到的 id 跳过，不重复计入插入数
+        Set<Long> pending = pendingIds;
+        pendingIds = null;
+        for (Long id : pending) {
+            if (!newFilter.mightContain(id)) {
+                newFilter.put(id);
+            }
+        }
+        log.info("店铺布隆过滤器构建完成, 元素数={}, 位数={}, 哈希函数个数={}",
+                newFilter.getInsertions(), newFilter.getBitSize(), newFilter.getNumHashes());
+    }
+
+    public boolean mightContain(Long id) {
+        BloomFilter f = filter;
+        // 还未构建完成时全部放行
+        return f == null || id == null || f.mightContain(id);
+    }
+
+    /**
+     * 新增店铺后调用：本节点立即生效，并通知其他节点
+     */
+    public void add(Long id) {
+        if (!enabled) {
+            return;
+        }
+        put(id);
+        stringRedisTemplate.convertAndSend(SHOP_BLOOM_CHANNEL, nodeId + ":" + id);
+    }
+
+    private void put(Long id) {
+        Set<Long> pending = pendingIds;
+        if (pending != null) {
+            pending.add(id);
+        }
+        BloomFilter f = filter;
+        if (f != null) {
+            f.put(id);
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        if (!enabled) {
+            return;
+        }
+        // 消息格式：节点标识:店铺 id，旧版本只有 id
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        int i = body.lastIndexOf(':');
+        if (i >= 0 && nodeId.equals(body.substring(0, i))) {
+            return;
+        }
+        put(Long.parseLong(body.substring(i + 1)));
+    }
+
+    /**
+     * @return 未开启或还未构建完成时返回 null
+     */
+    public Info getInfo() {
+        BloomFilter f = filter;
+        if (f == null) {
+            return null;
+        }
+        Info info = new Info();
+        info.setInsertions(f.getInsertions());
+        info.setBitSize(f.getBitSize());
+        info.setNumHashes(f.getNumHashes());
+        info.setExpectedFpp(f.expectedFpp());
+        return info;
+    }
+
+    @Data
+    public static class Info {
+        private long insertions;
+        private long bitSize;
+        private int numHashes;
+        private double expectedFpp;
+    }
+}
@@ -0,0 +1,141 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TTL;
+
+/**
+ * 启动时预热店铺缓存：按 id 顺序分批读取 tb_shop，用 pipeline 写入与 queryById 相同格式、带 TTL 的缓存。
+ * 预热达到配置的比例后才让启动流程继续（Spring Boot 在所有 ApplicationRunner 执行完后才把
+ * ReadinessState 置为 ACCEPTING_TRAFFIC），剩余部分在后台继续
+ */
+@Slf4j
+@Component
+public class ShopCacheWarmer implements ApplicationRunner {
+
+    @Resource
+    private ShopMapper shopMapper;
+    @Resource
+    private CacheClient cacheClient;
+
+    @Value("${hmdp.cache.warmup.enabled:false}")
+    private boolean enabled;
+    @Value("${hmdp.cache.warmup.chunk-size:500}")
+    private int chunkSize;
+    @Value("${hmdp.cache.warmup.threads:4}")
+    private int threads;
+    // 预热到该比例后开始接收流量
+    @Value("${hmdp.cache.warmup.ready-fraction:0.8}")
+    private double readyFraction;
+    // 最多等待多久，超时后不再阻塞启动
+    @Value("${hmdp.cache.warmup.max-wait-seconds:60}")
+    private long maxWaitSeconds;
+    // TTL 随机浮动的比例，避免预热的 key 在同一时刻集体过期
+    @Value("${hmdp.cache.warmup.ttl-jitter:0.1}")
+    private double ttlJitter;
+
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong warmed = new AtomicLong();
+    private volatile boolean finished;
+    private final CountDownLatch readyLatch = new CountDownLatch(1);
+
+    @Override
+    public void run(ApplicationArguments args) throws InterruptedException {
+        if (!enabled) {
+            return;
+        }
+        total.set(shopMapper.selectCount(null));
+        Thread reader = new Thread(this::warmUp, "shop-cache-warmup");
+        reader.setDaemon(true);
+        reader.start();
+        if (!readyLatch.await(maxWaitSeconds, TimeUnit.SECONDS)) {
+            log.warn("店铺缓存预热超时，当前进度 {}/{}", warmed.get(), total.get());
+        }
+    }
+
+    private void warmUp() {
+        long begin = System.currentTimeMillis();
+        // 写 Redis 的线程池，队列有界，写不过来时由读取线程自己执行，避免一次把整张表读进内存
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads * 2), new ThreadPoolExecutor.CallerRunsPolicy());
+        try {
+            long lastId = 0;
+            while (true) {
+                List<Shop> shops = shopMapper.selectList(new QueryWrapper<Shop>()
+                        .gt("id", lastId).orderByAsc("id").last("limit " + chunkSize));
+                if (shops.isEmpty()) {
+                    break;
+                }
+                lastId = shops.get(shops.size() - 1).getId();
+                executor.execute(() -> writeChunk(shops));
+                if (shops.size() < chunkSize) {
+                    break;
+                }
+            }
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.HOURS);
+            log.info("店铺缓存预热完成, 共 {} 条, 耗时 {} ms", warmed.get(), System.currentTimeMillis() - begin);
+        } catch (Exception e) {
+            log.error("店铺缓存预热失败", e);
+            executor.shutdownNow();
+        } finally {
+            finished = true;
+            readyLatch.countDown();
+        }
+    }
+
+    private void writeChunk(List<Shop> shops) {
+        try {
+            Map<String, Shop> values = new HashMap<>(shops.size() * 2);
+            for (Shop shop : shops) {
+                values.put(CACHE_SHOP_KEY + shop.getId(), shop);
+            }
+            // 与 queryById 的读写格式一致，带真实 TTL，到期后按正常路径回源；TTL 逐个随机浮动，错开过期时间
+            cacheClient.setBatch(values, CACHE_SHOP_TTL, TimeUnit.MINUTES, ttlJitter);
+            long done = warmed.addAndGet(shops.size());
+            log.debug("店铺缓存预热进度 {}/{}", done, total.get());
+            if (done >= total.get() * readyFraction) {
+                readyLatch.countDown();
+            }
+        } catch (Exception e) {
+            // 单批失败不影响其他批次，这部分数据会在第一次访问时回源
+            log.error("店铺缓存预热写入失败, 首个id={}", shops.get(0).getId(), e);
+        }
+    }
+
+    public Progress getProgress() {
+        Progress progress = new Progress();
+        progress.setTotal(total.get());
+        progress.setWarmed(warmed.get());
+        progress.setReady(readyLatch.getCount() == 0);
+        progress.setFinished(finished);
+        return progress;
+    }
+
+    @Data
+    public static class Progress {
+        private long total;
+        private long warmed;
+        private boolean ready;
+        private boolean finished;
+    }
+}
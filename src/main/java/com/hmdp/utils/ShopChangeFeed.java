@@ -0,0 +1,160 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 基于 tb_shop.update_time 的增量变更订阅：
+ * 按 (update_time, id) 顺序拉取变更过的店铺，批量刷新 Redis 中的店铺缓存（而不是删除），
+ * 再把变更的 id 广播给所有节点，各节点清掉本地缓存并发布 {@link ShopChangedEvent}。
+ * 拉取进度（高水位）保存在 Redis 中，同一时刻只有一个节点在拉取
+ */
+@Slf4j
+@Component
+public class ShopChangeFeed implements MessageListener {
+
+    @Resource
+    private ShopMapper shopMapper;
+    @Resource
+    private CacheClient cacheClient;
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private RedissonClient redissonClient;
+    @Resource
+    private ApplicationEventPublisher eventPublisher;
+
+    @Value("${hmdp.cache.cdc.enabled:false}")
+    private boolean enabled;
+    @Value("${hmdp.cache.cdc.batch-size:200}")
+    private int batchSize;
+    // update_time 只精确到秒，只拉取 lag 之前的变更，避免同一秒内稍后提交的数据被跳过
+    @Value("${hmdp.cache.cdc.lag-millis:2000}")
+    private long lagMillis;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Scheduled(fixedDelayString = "${hmdp.cache.cdc.poll-millis:1000}")
+    public void poll() {
+        if (!enabled) {
+            return;
+        }
+        RLock lock = redissonClient.getLock(LOCK_SHOP_CDC_KEY);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            while (pollOnce()) {
+                // 一批拉满了，说明可能还有，继续拉取
+            }
+        } catch (Exception e) {
+            log.error("店铺变更拉取失败", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return 本批是否拉满
+     */
+    private boolean pollOnce() {
+        // 1.读取高水位，第一次运行时从当前时间开始（已有数据由启动预热负责）
+        // 时间窗口的上界用数据库的时钟，应用服务器时钟比数据库快时也不会跳过变更
+        Map<Object, Object> hwm = stringRedisTemplate.opsForHash().entries(SHOP_CDC_HWM_KEY);
+        LocalDateTime upper = shopMapper.selectNow().minusNanos(lagMillis * 1_000_000);
+        if (hwm.isEmpty()) {
+            saveHighWaterMark(toEpochMilli(upper), 0L);
+            return false;
+        }
+        LocalDateTime lastTime = toLocalDateTime(Long.parseLong(hwm.get("time").toString()));
+        long lastId = Long.parseLong(hwm.get("id").toString());
+        // 2.按 (update_time, id) 顺序拉取一批
+        List<Shop> shops = shopMapper.selectList(new QueryWrapper<Shop>()
+                .le("update_time", upper)
+                .and(w -> w.gt("update_time", lastTime)
+                        .or(o -> o.eq("update_time", lastTime).gt("id", lastId)))
+                .orderByAsc("update_time", "id")
+                .last("limit " + batchSize));
+        if (shops.isEmpty()) {
+            return false;
+        }
+        // 3.批量刷新 Redis，与 queryById 的读写格式一致，带真实 TTL，漏掉的变更最多旧一个 TTL
+        Map<String, Shop> values = new HashMap<>(shops.size() * 2);
+        List<Long> ids = new ArrayList<>(shops.size());
+        for (Shop shop : shops) {
+            values.put(CACHE_SHOP_KEY + shop.getId(), shop);
+            ids.add(shop.getId());
+        }
+        cacheClient.setBatch(values, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        // 4.通知所有节点
+        publish(ids);
+        // 5.推进高水位
+        Shop last = shops.get(shops.size() - 1);
+        saveHighWaterMark(toEpochMilli(last.getUpdateTime()), last.getId());
+        log.debug("刷新了 {} 个变更的店铺缓存", shops.size());
+        return shops.size() == batchSize;
+    }
+
+    /**
+     * 广播店铺变更，关闭变更订阅时由写入方直接调用
+     */
+    public void publish(List<Long> shopIds) {
+        stringRedisTemplate.convertAndSend(SHOP_CHANGED_CHANNEL, StrUtil.join(",", shopIds));
+    }
+
+    private void saveHighWaterMark(long time, Long id) {
+        Map<String, String> hwm = new HashMap<>(4);
+        hwm.put("time", String.valueOf(time));
+        hwm.put("id", id.toString());
+        stringRedisTemplate.opsForHash().putAll(SHOP_CDC_HWM_KEY, hwm);
+    }
+
+    private static long toEpochMilli(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private static LocalDateTime toLocalDateTime(long epochMillis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault());
+    }
+
+    /**
+     * 收到变更广播：清掉本地缓存，并在本节点发布事件
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        List<Long> ids = new ArrayList<>();
+        for (String id : StrUtil.split(body, ',')) {
+            ids.add(Long.valueOf(id));
+            cacheClient.evictLocal(CACHE_SHOP_KEY + id);
+        }
+        eventPublisher.publishEvent(new ShopChangedEvent(this, ids));
+    }
+}
@@ -0,0 +1,21 @@
+package com.hmdp.utils;
+
+import lombok.Getter;
+import org.springframework.context.ApplicationEvent;
+
+import java.util.List;
+
+/**
+ * 店铺数据发生变化（新增或修改），每个节点收到变更广播后在本地发布，
+ * 此时 Redis 中的店铺缓存已经是最新的
+ */
+@Getter
+public class ShopChangedEvent extends ApplicationEvent {
+
+    private final List<Long> shopIds;
+
+    public ShopChangedEvent(Object source, List<Long> shopIds) {
+        super(source);
+        this.shopIds = shopIds;
+    }
+}
@@ -0,0 +1,464 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 进程内的店铺网格索引：按 (类型, 经度格子, 纬度格子) 把店铺分桶，查询时从所在格子一圈圈向外扩展，
+ * 不需要访问 Redis。每个格子的店铺放在基本类型数组里（每个店铺 id + 经纬度 24 字节），
+ * 店铺所在的格子也记在基本类型的开放寻址表里（每个店铺 32~64 字节），不为每个店铺创建对象。
+ * 格子是不可变的，店铺变更时只重建它原来所在和现在所在的格子再替换，读取不加锁。
+ * 店铺换格子的瞬间，查询可能短暂在两个格子里都看到或都看不到它，下一次查询即恢复。
+ * 还没构建完成时 {@link #isReady()} 返回 false，调用方改用 Redis GEO
+ */
+@Slf4j
+@Component
+public class ShopGeoGrid implements ApplicationRunner {
+
+    // 地球半径，与 Redis GEO 保持一致
+    private static final double EARTH_RADIUS = 6372797.560856;
+    private static final double METERS_PER_DEGREE = Math.PI * EARTH_RADIUS / 180;
+    // 格子坐标加上偏移后占 21 位，类型 id 放在高位
+    private static final int CELL_OFFSET = 1 << 20;
+    // 经度 ±180 度除以格子边长不能超出 21 位，格子边长至少约 0.00017 度（约 19 米）
+    private static final double MIN_CELL_DEGREES = 180.0 / CELL_OFFSET;
+    private static final int BUILD_CHUNK_SIZE = 1000;
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    @Value("${hmdp.shop.grid.enabled:false}")
+    private boolean enabled;
+    // 格子边长（度），0.01 度约 1 公里
+    @Value("${hmdp.shop.grid.cell-degrees:0.01}")
+    private double cellDegrees;
+    // 查询最多向外扩展的距离
+    @Value("${hmdp.shop.grid.max-search-meters:50000}")
+    private double maxSearchMeters;
+
+    private volatile Grid grid;
+    // 构建期间收到的变更，构建完成后再应用
+    private final Set<Long> pendingIds = new HashSet<>();
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!enabled) {
+            return;
+        }
+        if (!(cellDegrees >= MIN_CELL_DEGREES && cellDegrees <= 180)) {
+            throw new IllegalStateException("hmdp.shop.grid.cell-degrees 必须在 " + MIN_CELL_DEGREES + " 到 180 之间");
+        }
+        Thread builder = new Thread(this::build, "shop-geo-grid-build");
+        builder.setDaemon(true);
+        builder.start();
+    }
+
+    private void build() {
+        long begin = System.currentTimeMillis();
+        try {
+            // 1.按 id 顺序分批读取坐标，按格子分组
+            Map<Long, Entries> byCell = new HashMap<>();
+            long lastId = 0;
+            while (true) {
+                List<Shop> shops = shopMapper.selectList(new QueryWrapper<Shop>()
+                        .select("id", "type_id", "x", "y")
+                        .gt("id", lastId).orderByAsc("id").last("limit " + BUILD_CHUNK_SIZE));
+                for (Shop shop : shops) {
+                    if (hasLocation(shop)) {
+                        byCell.computeIfAbsent(cellKey(shop.getTypeId(), shop.getX(), shop.getY()), k -> new Entries(4))
+                                .add(shop.getId(), shop.getX(), shop.getY());
+                    }
+                }
+                if (shops.size() < BUILD_CHUNK_SIZE) {
+                    break;
+                }
+                lastId = shops.get(shops.size() - 1).getId();
+            }
+            // 2.生成各个格子，并补上构建期间的变更
+            int shopCount = 0;
+            for (Entries entries : byCell.values()) {
+                shopCount += entries.size;
+            }
+            Grid newGrid = new Grid(shopCount);
+            for (Map.Entry<Long, Entries> entry : byCell.entrySet()) {
+                Cell cell = new Cell(entry.getValue());
+                newGrid.cells.put(entry.getKey(), cell);
+                for (long id : cell.ids) {
+                    newGrid.cellOf.put(id, entry.getKey());
+                }
+            }
+            synchronized (this) {
+                grid = newGrid;
+                applyChanges(new ArrayList<>(pendingIds));
+                pendingIds.clear();
+            }
+            log.info("店铺网格索引构建完成, 共 {} 个店铺, {} 个格子, 耗时 {} ms",
+                    newGrid.cellOf.size(), newGrid.cells.size(), System.currentTimeMillis() - begin);
+        } catch (Exception e) {
+            log.error("店铺网格索引构建失败，附近店铺查询将使用 Redis GEO", e);
+        }
+    }
+
+    public boolean isReady() {
+        return grid != null;
+    }
+
+    /**
+     * 店铺变更后，读取最新坐标，只替换受影响的格子
+     */
+    @EventListener
+    public void onShopChanged(ShopChangedEvent event) {
+        if (!enabled) {
+            return;
+        }
+        synchronized (this) {
+            if (grid == null) {
+                pendingIds.addAll(event.getShopIds());
+                return;
+            }
+            applyChanges(event.getShopIds());
+        }
+    }
+
+    private void applyChanges(List<Long> shopIds) {
+        if (shopIds.isEmpty()) {
+            return;
+        }
+        // 直接查库：缓存查询要经过布隆过滤器，新增店铺的广播可能还没到，会被当成不存在而漏掉
+        List<Shop> shops = shopMapper.selectList(new QueryWrapper<Shop>()
+                .select("id", "type_id", "x", "y").in("id", shopIds));
+        Grid g = grid;
+        // 1.变更的店铺从原来的格子移除，已经不存在的店铺就此移除
+        Map<Long, Set<Long>> removed = new HashMap<>();
+        for (Long id : shopIds) {
+            long oldKey = g.cellOf.remove(id);
+            if (oldKey != LongLongMap.NO_VALUE) {
+                removed.computeIfAbsent(oldKey, k -> new HashSet<>()).add(id);
+            }
+        }
+        // 2.加入现在所在的格子
+        Map<Long, Entries> added = new HashMap<>();
+        for (Shop shop : shops) {
+            if (!hasLocation(shop)) {
+                continue;
+            }
+            long key = cellKey(shop.getTypeId(), shop.getX(), shop.getY());
+            added.computeIfAbsent(key, k -> new Entries(4)).add(shop.getId(), shop.getX(), shop.getY());
+            g.cellOf.put(shop.getId(), key);
+        }
+        // 3.只重建受影响的格子
+        Set<Long> affected = new HashSet<>(removed.keySet());
+        affected.addAll(added.keySet());
+        for (Long key : affected) {
+            Cell old = g.cells.get(key);
+            Set<Long> drop = removed.getOrDefault(key, new HashSet<>());
+            Entries add = added.get(key);
+            Entries entries = new Entries((old == null ? 0 : old.ids.length) + (add == null ? 0 : add.size));
+            if (old != null) {
+                for (int i = 0; i < old.ids.length; i++) {
+                    if (!drop.contains(old.ids[i])) {
+                        entries.add(old.ids[i], old.xs[i], old.ys[i]);
+                    }
+                }
+            }
+            if (add != null) {
+                for (int i = 0; i < add.size; i++) {
+                    entries.add(add.ids[i], add.xs[i], add.ys[i]);
+                }
+            }
+            if (entries.size == 0) {
+                g.cells.remove(key);
+            } else {
+                g.cells.put(key, new Cell(entries));
+            }
+        }
+    }
+
+    private static boolean hasLocation(Shop shop) {
+        return shop.getTypeId() != null && shop.getX() != null && shop.getY() != null;
+    }
+
+    /**
+     * 查询某个类型下距离最近的店铺，按距离滚动分页
+     * @return 店铺 id -> 距离（米），按距离排序
+     */
+    public Map<Long, Double> queryNearby(Long typeId, double x, double y, double radiusMeters, int current, int pageSize) {
+        int from = (current - 1) * pageSize;
+        TopK top = search(typeId, x, y, radiusMeters, current * pageSize);
+        Map<Long, Double> nearby = new LinkedHashMap<>();
+        for (int i = from; i < top.size; i++) {
+            nearby.put(top.ids[i], top.distances[i]);
+        }
+        return nearby;
+    }
+
+    /**
+     * 从所在格子一圈圈向外扩展，扩展到的最近距离已经超过半径或第 k 近的距离时停止
+     */
+    private TopK search(Long typeId, double x, double y, double radiusMeters, int k) {
+        Grid g = grid;
+        TopK top = new TopK(k);
+        if (g == null || k <= 0) {
+            return top;
+        }
+        int cx = (int) Math.floor(x / cellDegrees);
+        int cy = (int) Math.floor(y / cellDegrees);
+        // 一个格子在东西、南北方向上的最短边长（米），用来估算未扩展区域的最近距离
+        double cellMeters = cellDegrees * METERS_PER_DEGREE * Math.min(1, Math.cos(Math.toRadians(Math.abs(y) + cellDegrees)));
+        double limit = Math.min(radiusMeters, maxSearchMeters);
+        int maxRing = (int) Math.ceil(limit / cellMeters) + 1;
+        for (int ring = 0; ring <= maxRing; ring++) {
+            for (int dx = -ring; dx <= ring; dx++) {
+                boolean edge = dx == -ring || dx == ring;
+                for (int dy = -ring; dy <= ring; dy += edge ? 1 : 2 * ring) {
+                    scanCell(g, cellKey(typeId, cx + dx, cy + dy), x, y, radiusMeters, top);
+                }
+            }
+            // 第 ring+1 圈中的点到查询点至少相距 ring 个格子
+            double bound = ring * cellMeters;
+            if (bound > limit || (top.isFull() && bound >= top.worst())) {
+                break;
+            }
+        }
+        return top;
+    }
+
+    private static void scanCell(Grid g, long key, double x, double y, double radiusMeters, TopK top) {
+        Cell cell = g.cells.get(key);
+        if (cell == null) {
+            return;
+        }
+        for (int i = 0; i < cell.ids.length; i++) {
+            double d = distance(x, y, cell.xs[i], cell.ys[i]);
+            if (d <= radiusMeters) {
+                top.offer(cell.ids[i], d);
+            }
+        }
+    }
+
+    private long cellKey(Long typeId, double x, double y) {
+        return cellKey(typeId, (int) Math.floor(x / cellDegrees), (int) Math.floor(y / cellDegrees));
+    }
+
+    private static long cellKey(Long typeId, int cx, int cy) {
+        return (typeId << 42) | ((long) (cx + CELL_OFFSET) << 21) | (cy + CELL_OFFSET);
+    }
+
+    /**
+     * 球面距离（米），与 Redis GEODIST 的算法一致
+     */
+    private static double distance(double x1, double y1, double x2, double y2) {
+        double lat1 = Math.toRadians(y1);
+        double lat2 = Math.toRadians(y2);
+        double u = Math.sin((lat2 - lat1) / 2);
+        double v = Math.sin(Math.toRadians(x2 - x1) / 2);
+        return 2 * EARTH_RADIUS * Math.asin(Math.sqrt(u * u + Math.cos(lat1) * Math.cos(lat2) * v * v));
+    }
+
+    /**
+     * 格子 key -> 格子，以及每个店铺当前所在的格子，用来在变更时找到原来的格子。
+     * cellOf 只在构建和加锁的 applyChanges 中访问
+     */
+    private static class Grid {
+        final Map<Long, Cell> cells = new ConcurrentHashMap<>();
+        final LongLongMap cellOf;
+
+        Grid(int expectedShops) {
+            cellOf = new LongLongMap(expectedShops);
+        }
+    }
+
+    /**
+     * 店铺 id -> 格子 key 的开放寻址表（线性探测），key 和 value 都是 long，不装箱。
+     * 店铺 id 大于 0，用 0 表示空位；删除时把后面的元素前移，不留墓碑。不是线程安全的
+     */
+    static class LongLongMap {
+        static final long NO_VALUE = Long.MIN_VALUE;
+
+        private long[] keys;
+        private long[] values;
+        private int size;
+
+        LongLongMap(int expected) {
+            int capacity = 16;
+            while (capacity < expected * 2) {
+                capacity <<= 1;
+            }
+            keys = new long[capacity];
+            values = new long[capacity];
+        }
+
+        int size() {
+            return size;
+        }
+
+        long get(long key) {
+            int mask = keys.length - 1;
+            for (int i = slot(key, mask); keys[i] != 0; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    return values[i];
+                }
+            }
+            return NO_VALUE;
+        }
+
+        void put(long key, long value) {
+            if ((size + 1) * 2 > keys.length) {
+                resize();
+            }
+            int mask = keys.length - 1;
+            int i = slot(key, mask);
+            while (keys[i] != 0) {
+                if (keys[i] == key) {
+                    values[i] = value;
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            values[i] = value;
+            size++;
+        }
+
+        long remove(long key) {
+            int mask = keys.length - 1;
+            for (int i = slot(key, mask); keys[i] != 0; i = (i + 1) & mask) {
+                if (keys[i] != key) {
+                    continue;
+                }
+                long old = values[i];
+                // 后面探测链上的元素，如果它的初始位置不在 (i, j] 之间，就移到空出来的 i
+                for (int j = (i + 1) & mask; keys[j] != 0; j = (j + 1) & mask) {
+                    int home = slot(keys[j], mask);
+                    boolean between = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+                    if (!between) {
+                        keys[i] = keys[j];
+                        values[i] = values[j];
+                        i = j;
+                    }
+                }
+                keys[i] = 0;
+                size--;
+                return old;
+            }
+            return NO_VALUE;
+        }
+
+        private void resize() {
+            long[] oldKeys = keys;
+            long[] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = new long[oldKeys.length * 2];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) {
+                    put(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+
+        private static int slot(long key, int mask) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32)) & mask;
+        }
+    }
+
+    /**
+     * 一个格子里的店铺，不可变
+     */
+    private static class Cell {
+        final long[] ids;
+        final double[] xs;
+        final double[] ys;
+
+        Cell(Entries e) {
+            ids = Arrays.copyOf(e.ids, e.size);
+            xs = Arrays.copyOf(e.xs, e.size);
+            ys = Arrays.copyOf(e.ys, e.size);
+        }
+    }
+
+    /**
+     * 构建格子用的可增长数组
+     */
+    private static class Entries {
+        long[] ids;
+        double[] xs;
+        double[] ys;
+        int size;
+
+        Entries(int capacity) {
+            capacity = Math.max(capacity, 4);
+            ids = new long[capacity];
+            xs = new double[capacity];
+            ys = new double[capacity];
+        }
+
+        void add(long id, double x, double y) {
+            if (size == ids.length) {
+                int capacity = size * 2;
+                ids = Arrays.copyOf(ids, capacity);
+                xs = Arrays.copyOf(xs, capacity);
+                ys = Arrays.copyOf(ys, capacity);
+            }
+            ids[size] = id;
+            xs[size] = x;
+            ys[size] = y;
+            size++;
+        }
+    }
+
+    /**
+     * 距离最近的 k 个店铺，按距离升序插入，k 是页面大小级别，插入排序足够
+     */
+    private static class TopK {
+        final long[] ids;
+        final double[] distances;
+        int size;
+
+        TopK(int k) {
+            ids = new long[Math.max(k, 0)];
+            distances = new double[Math.max(k, 0)];
+        }
+
+        boolean isFull() {
+            return size == ids.length;
+        }
+
+        double worst() {
+            return distances[size - 1];
+        }
+
+        void offer(long id, double distance) {
+            if (isFull() && distance >= worst()) {
+                return;
+            }
+            int i = isFull() ? size - 1 : size++;
+            while (i > 0 && distances[i - 1] > distance) {
+                ids[i] = ids[i - 1];
+                distances[i] = distances[i - 1];
+                i--;
+            }
+            ids[i] = id;
+            distances[i] = distance;
+        }
+    }
+}
@@ -0,0 +1,380 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 进程内的店铺名称倒排索引：名称按单字和相邻两字切分（中文没有空格分词，二元切分即可覆盖任意子串），
+ * 每个词对应一个倒排表，倒排表是按文档序号递增的差值 varint 编码。
+ * 查询时取各个词倒排表的交集，再校验名称确实包含关键字，结果与 LIKE '%name%' 一致，按匹配程度排序。
+ * <p>
+ * 店铺变更时旧文档标记删除、新文档追加到末尾，只需要在相关倒排表末尾追加，删除过多时整体重建
+ */
+@Slf4j
+@Component
+public class ShopNameIndex implements ApplicationRunner {
+
+    private static final int BUILD_CHUNK_SIZE = 1000;
+    // 删除的文档超过该比例时重建
+    private static final double COMPACT_RATIO = 0.2;
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    @Value("${hmdp.shop.name-index.enabled:false}")
+    private boolean enabled;
+
+    private volatile Snapshot snapshot;
+    // 构建期间收到的变更，构建完成后再应用
+    private final Set<Long> pendingIds = new HashSet<>();
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!enabled) {
+            return;
+        }
+        Thread builder = new Thread(this::build, "shop-name-index-build");
+        builder.setDaemon(true);
+        builder.start();
+    }
+
+    private void build() {
+        long begin = System.currentTimeMillis();
+        try {
+            // 1.按 id 顺序分批读取名称
+            Map<Long, String> names = new HashMap<>();
+            long lastId = 0;
+            while (true) {
+                List<Shop> shops = shopMapper.selectList(new QueryWrapper<Shop>()
+                        .select("id", "name")
+                        .gt("id", lastId).orderByAsc("id").last("limit " + BUILD_CHUNK_SIZE));
+                for (Shop shop : shops) {
+                    names.put(shop.getId(), shop.getName());
+                }
+                if (shops.size() < BUILD_CHUNK_SIZE) {
+                    break;
+                }
+                lastId = shops.get(shops.size() - 1).getId();
+            }
+            // 2.生成索引，并补上构建期间的变更
+            synchronized (this) {
+                snapshot = Snapshot.of(names);
+                applyChanges(new ArrayList<>(pendingIds));
+                pendingIds.clear();
+            }
+            log.info("店铺名称索引构建完成, 共 {} 个店铺, {} 个词, 耗时 {} ms",
+                    names.size(), snapshot.postings.size(), System.currentTimeMillis() - begin);
+        } catch (Exception e) {
+            log.error("店铺名称索引构建失败，名称搜索将查询数据库", e);
+        }
+    }
+
+    public boolean isReady() {
+        return snapshot != null;
+    }
+
+    @EventListener
+    public void onShopChanged(ShopChangedEvent event) {
+        if (!enabled) {
+            return;
+        }
+        synchronized (this) {
+            if (snapshot == null) {
+                pendingIds.addAll(event.getShopIds());
+                return;
+            }
+            applyChanges(event.getShopIds());
+        }
+    }
+
+    private void applyChanges(List<Long> shopIds) {
+        if (shopIds.isEmpty()) {
+            return;
+        }
+        // 名称从数据库读取，不走布隆过滤器，新店铺不会因为过滤器还没收到广播而漏建索引
+        List<Shop> shops = shopMapper.selectList(new QueryWrapper<Shop>()
+                .select("id", "name").in("id", shopIds));
+        Map<Long, String> changed = new HashMap<>(shopIds.size() * 2);
+        for (Long id : shopIds) {
+            // 查不到的店铺只删除
+            changed.put(id, null);
+        }
+        for (Shop shop : shops) {
+            changed.put(shop.getId(), shop.getName());
+        }
+        Snapshot next = snapshot.update(changed);
+        if (next.deletedCount > next.ids.length * COMPACT_RATIO) {
+            next = Snapshot.of(next.liveNames());
+        }
+        snapshot = next;
+    }
+
+    /**
+     * 按名称关键字分页查询
+     * @return 本页的店铺 id，按匹配程度排序：名称完全相同、以关键字开头、关键字出现得越靠前、名称越短越靠前
+     */
+    public List<Long> search(String keyword, int current, int pageSize) {
+        Snapshot s = snapshot;
+        String query = normalize(keyword);
+        if (s == null || query.isEmpty()) {
+            return new ArrayList<>();
+        }
+        // 1.取所有词倒排表的交集
+        int[] candidates = null;
+        for (String gram : grams(query)) {
+            Posting posting = s.postings.get(gram);
+            if (posting == null) {
+                return new ArrayList<>();
+            }
+            candidates = candidates == null ? posting.decode() : intersect(candidates, posting);
+            if (candidates.length == 0) {
+                return new ArrayList<>();
+            }
+        }
+        // 2.校验名称包含关键字并打分，分数越小越靠前
+        int count = 0;
+        long[] scored = new long[candidates.length];
+        for (int doc : candidates) {
+            if (s.deleted.get(doc)) {
+                continue;
+            }
+            String name = s.names[doc];
+            int pos = name.indexOf(query);
+            if (pos < 0) {
+                continue;
+            }
+            int rank = name.length() == query.length() ? 0 : pos == 0 ? 1 : 2;
+            // 高位依次是匹配类型、出现位置、名称长度，低位是文档序号
+            scored[count++] = (long) rank << 60 | (long) Math.min(pos, 0xFF) << 52
+                    | (long) Math.min(name.length(), 0xFFFF) << 32 | doc;
+        }
+        // 3.排序后取出这一页
+        Arrays.sort(scored, 0, count);
+        int from = (current - 1) * pageSize;
+        int end = Math.min(count, from + pageSize);
+        List<Long> ids = new ArrayList<>(Math.max(end - from, 0));
+        for (int i = from; i < end; i++) {
+            ids.add(s.ids[(int) scored[i]]);
+        }
+        return ids;
+    }
+
+    static String normalize(String text) {
+        return text == null ? "" : StrUtil.cleanBlank(text).toLowerCase();
+    }
+
+    /**
+     * 单字的关键字查单字倒排表，否则查相邻两字
+     */
+    static Set<String> grams(String text) {
+        Set<String> grams = new LinkedHashSet<>();
+        if (text.length() == 1) {
+            grams.add(text);
+            return grams;
+        }
+        for (int i = 0; i + 1 < text.length(); i++) {
+            grams.add(text.substring(i, i + 2));
+        }
+        return grams;
+    }
+
+    /**
+     * 建索引时单字和两字都要写入
+     */
+    private static Set<String> indexGrams(String text) {
+        Set<String> grams = grams(text);
+        for (int i = 0; i < text.length(); i++) {
+            grams.add(text.substring(i, i + 1));
+        }
+        return grams;
+    }
+
+    static int[] intersect(int[] docs, Posting posting) {
+        int[] result = new int[docs.length];
+        int n = 0;
+        int i = 0;
+        Posting.Cursor cursor = posting.cursor();
+        while (i < docs.length && cursor.hasNext()) {
+            int doc = cursor.next();
+            while (i < docs.length && docs[i] < doc) {
+                i++;
+            }
+            if (i < docs.length && docs[i] == doc) {
+                result[n++] = doc;
+                i++;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /**
+     * 不可变的索引快照，文档序号就是数组下标
+     */
+    private static class Snapshot {
+        final long[] ids;
+        final String[] names;
+        final BitSet deleted;
+        final int deletedCount;
+        final Map<Long, Integer> docOf;
+        final Map<String, Posting> postings;
+
+        Snapshot(long[] ids, String[] names, BitSet deleted, int deletedCount,
+                 Map<Long, Integer> docOf, Map<String, Posting> postings) {
+            this.ids = ids;
+            this.names = names;
+            this.deleted = deleted;
+            this.deletedCount = deletedCount;
+            this.docOf = docOf;
+            this.postings = postings;
+        }
+
+        static Snapshot of(Map<Long, String> shopNames) {
+            Snapshot empty = new Snapshot(new long[0], new String[0], new BitSet(), 0,
+                    new HashMap<>(), new HashMap<>());
+            return empty.update(shopNames);
+        }
+
+        /**
+         * 旧文档标记删除，新文档追加到末尾，只复制受影响的倒排表
+         * @param changed 店铺 id -> 新名称，名称为 null 表示删除
+         */
+        Snapshot update(Map<Long, String> changed) {
+            int added = 0;
+            for (String name : changed.values()) {
+                if (name != null) {
+                    added++;
+                }
+            }
+            long[] newIds = Arrays.copyOf(ids, ids.length + added);
+            String[] newNames = Arrays.copyOf(names, names.length + added);
+            BitSet newDeleted = (BitSet) deleted.clone();
+            int newDeletedCount = deletedCount;
+            Map<Long, Integer> newDocOf = new HashMap<>(docOf);
+            Map<String, Posting> newPostings = new HashMap<>(postings);
+            Set<String> copied = new HashSet<>();
+            int doc = ids.length;
+            for (Map.Entry<Long, String> entry : changed.entrySet()) {
+                Integer old = newDocOf.remove(entry.getKey());
+                if (old != null) {
+                    newDeleted.set(old);
+                    newDeletedCount++;
+                }
+                if (entry.getValue() == null) {
+                    continue;
+                }
+                String name = normalize(entry.getValue());
+                newIds[doc] = entry.getKey();
+                newNames[doc] = name;
+                newDocOf.put(entry.getKey(), doc);
+                for (String gram : indexGrams(name)) {
+                    Posting posting = newPostings.get(gram);
+                    if (posting == null) {
+                        posting = new Posting();
+                        copied.add(gram);
+                    } else if (copied.add(gram)) {
+                        posting = posting.copy();
+                    }
+                    posting.append(doc);
+                    newPostings.put(gram, posting);
+                }
+                doc++;
+            }
+            return new Snapshot(newIds, newNames, newDeleted, newDeletedCount, newDocOf, newPostings);
+        }
+
+        Map<Long, String> liveNames() {
+            Map<Long, String> live = new HashMap<>(docOf.size() * 2);
+            for (Map.Entry<Long, Integer> entry : docOf.entrySet()) {
+                live.put(entry.getKey(), names[entry.getValue()]);
+            }
+            return live;
+        }
+    }
+
+    /**
+     * 倒排表：递增的文档序号，存相邻差值的 varint 编码
+     */
+    static class Posting {
+        byte[] data = new byte[8];
+        int length;
+        int count;
+        int last = -1;
+
+        Posting copy() {
+            Posting posting = new Posting();
+            posting.data = Arrays.copyOf(data, Math.max(length + 8, data.length));
+            posting.length = length;
+            posting.count = count;
+            posting.last = last;
+            return posting;
+        }
+
+        void append(int doc) {
+            int delta = doc - last;
+            last = doc;
+            count++;
+            if (length + 5 > data.length) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, length + 5));
+            }
+            while ((delta & ~0x7F) != 0) {
+                data[length++] = (byte) ((delta & 0x7F) | 0x80);
+                delta >>>= 7;
+            }
+            data[length++] = (byte) delta;
+        }
+
+        int[] decode() {
+            int[] docs = new int[count];
+            Cursor cursor = cursor();
+            for (int i = 0; i < count; i++) {
+                docs[i] = cursor.next();
+            }
+            return docs;
+        }
+
+        Cursor cursor() {
+            return new Cursor();
+        }
+
+        class Cursor {
+            int pos;
+            int doc = -1;
+
+            boolean hasNext() {
+                return pos < length;
+            }
+
+            int next() {
+                int delta = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = data[pos++];
+                    delta |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while ((b & 0x80) != 0);
+                doc += delta;
+                return doc;
+            }
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 店铺名称的前缀补全：所有名称排序后存成数组，同一前缀的名称在数组中是连续的一段（相当于把前缀树压平），
+ * 二分找到这一段后，用线段树按热度取前 k 个，不需要遍历整段。
+ * 热度取自销量和评分，会随时间变化，所以不做增量修改，而是在后台定期整体重建后原子替换。
+ * 未开启或词典还没建好时，按名称前缀查数据库
+ */
+@Slf4j
+@Component
+public class ShopNameSuggester {
+
+    private static final int BUILD_CHUNK_SIZE = 1000;
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    @Value("${hmdp.shop.suggest.enabled:false}")
+    private boolean enabled;
+    // 没有变更时也定期重建，刷新销量和评分
+    @Value("${hmdp.shop.suggest.refresh-minutes:30}")
+    private long refreshMinutes;
+    @Value("${hmdp.shop.suggest.max-limit:20}")
+    private int maxLimit;
+
+    private volatile Dictionary dictionary;
+    private volatile boolean dirty = true;
+    private volatile long lastBuildTime;
+
+    @EventListener
+    public void onShopChanged(ShopChangedEvent event) {
+        dirty = true;
+    }
+
+    /**
+     * 启动后立即构建，之后有店铺变更时最多隔 rebuild-seconds 重建一次
+     */
+    @Scheduled(fixedDelayString = "#{${hmdp.shop.suggest.rebuild-seconds:60} * 1000}")
+    public void rebuildIfNeeded() {
+        if (!enabled) {
+            return;
+        }
+        boolean expired = System.currentTimeMillis() - lastBuildTime > TimeUnit.MINUTES.toMillis(refreshMinutes);
+        if (!dirty && !expired) {
+            return;
+        }
+        // 先清标记，重建期间的变更会触发下一次重建
+        dirty = false;
+        try {
+            long begin = System.currentTimeMillis();
+            dictionary = build();
+            lastBuildTime = System.currentTimeMillis();
+            log.debug("店铺名称补全词典重建完成, 共 {} 个店铺, 耗时 {} ms",
+                    dictionary.keys.length, lastBuildTime - begin);
+        } catch (Exception e) {
+            dirty = true;
+            log.error("店铺名称补全词典重建失败", e);
+        }
+    }
+
+    private Dictionary build() {
+        // 1.按 id 顺序分批读取
+        List<Shop> all = new ArrayList<>();
+        long lastId = 0;
+        while (true) {
+            List<Shop> shops = shopMapper.selectList(new QueryWrapper<Shop>()
+                    .select("id", "name", "sold", "score")
+                    .gt("id", lastId).orderByAsc("id").last("limit " + BUILD_CHUNK_SIZE));
+            all.addAll(shops);
+            if (shops.size() < BUILD_CHUNK_SIZE) {
+                break;
+            }
+            lastId = shops.get(shops.size() - 1).getId();
+        }
+        // 2.按规范化后的名称排序
+        String[] normalized = new String[all.size()];
+        Integer[] order = new Integer[all.size()];
+        for (int i = 0; i < all.size(); i++) {
+            normalized[i] = ShopNameIndex.normalize(all.get(i).getName());
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> normalized[a].compareTo(normalized[b]));
+        int n = all.size();
+        String[] keys = new String[n];
+        String[] names = new String[n];
+        long[] ids = new long[n];
+        long[] weights = new long[n];
+        for (int i = 0; i < n; i++) {
+            Shop shop = all.get(order[i]);
+            keys[i] = normalized[order[i]];
+            names[i] = shop.getName();
+            ids[i] = shop.getId();
+            weights[i] = weight(shop);
+        }
+        return new Dictionary(keys, names, ids, weights);
+    }
+
+    /**
+     * 热度：销量按评分（满分 50）加权
+     */
+    private static long weight(Shop shop) {
+        long sold = shop.getSold() == null ? 0 : shop.getSold();
+        long score = shop.getScore() == null ? 0 : shop.getScore();
+        return (sold + 1) * (score + 1);
+    }
+
+    public boolean isReady() {
+        return dictionary != null;
+    }
+
+    /**
+     * @return 以 prefix 开头的店铺中热度最高的 limit 个，按热度从高到低，热度相同时按名称排序
+     */
+    public List<Suggestion> suggest(String prefix, int limit) {
+        Dictionary d = dictionary;
+        String key = ShopNameIndex.normalize(prefix);
+        List<Suggestion> result = new ArrayList<>();
+        if (key.isEmpty() || limit <= 0) {
+            return result;
+        }
+        limit = Math.min(limit, maxLimit);
+        if (d == null) {
+            return suggestFromDb(prefix.trim(), limit);
+        }
+        // 1.二分找到以 key 开头的区间 [from, to)
+        int from = lowerBound(d.keys, key);
+        int to = lowerBound(d.keys, key + Character.MAX_VALUE);
+        if (from >= to) {
+            return result;
+        }
+        // 2.每次取出区间内热度最高的一个，再把区间从它这里一分为二；热度相同时与 argMax 一样取排在前面的
+        PriorityQueue<int[]> queue = new PriorityQueue<>((a, b) -> d.weights[a[0]] != d.weights[b[0]]
+                ? Long.compare(d.weights[b[0]], d.weights[a[0]]) : Integer.compare(a[0], b[0]));
+        queue.add(new int[]{d.argMax(from, to), from, to});
+        while (!queue.isEmpty() && result.size() < limit) {
+            int[] top = queue.poll();
+            int i = top[0];
+            result.add(new Suggestion(d.ids[i], d.names[i]));
+            if (top[1] < i) {
+                queue.add(new int[]{d.argMax(top[1], i), top[1], i});
+            }
+            if (i + 1 < top[2]) {
+                queue.add(new int[]{d.argMax(i + 1, top[2]), i + 1, top[2]});
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 没有词典时按名称前缀查数据库，销量高、评分高的在前
+     */
+    private List<Suggestion> suggestFromDb(String prefix, int limit) {
+        List<Shop> shops = shopMapper.selectList(new QueryWrapper<Shop>()
+                .select("id", "name")
+                .likeRight("name", prefix)
+                .orderByDesc("sold", "score")
+                .last("limit " + limit));
+        List<Suggestion> result = new ArrayList<>(shops.size());
+        for (Shop shop : shops) {
+            result.add(new Suggestion(shop.getId(), shop.getName()));
+        }
+        return result;
+    }
+
+    private static int lowerBound(String[] keys, String key) {
+        int lo = 0;
+        int hi = keys.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys[mid].compareTo(key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * 不可变的补全词典，tree 是按热度取最大值下标的线段树
+     */
+    private static class Dictionary {
+        final String[] keys;
+        final String[] names;
+        final long[] ids;
+        final long[] weights;
+        final int size;
+        final int[] tree;
+
+        Dictionary(String[] keys, String[] names, long[] ids, long[] weights) {
+            this.keys = keys;
+            this.names = names;
+            this.ids = ids;
+            this.weights = weights;
+            this.size = keys.length;
+            this.tree = new int[Math.max(2 * size, 2)];
+            for (int i = 0; i < size; i++) {
+                tree[size + i] = i;
+            }
+            for (int i = size - 1; i > 0; i--) {
+                tree[i] = better(tree[2 * i], tree[2 * i + 1]);
+            }
+        }
+
+        /**
+         * 区间 [from, to) 中热度最高的下标，热度相同时取排在前面的
+         */
+        int argMax(int from, int to) {
+            int best = from;
+            for (int l = from + size, r = to + size; l < r; l >>= 1, r >>= 1) {
+                if ((l & 1) == 1) {
+                    best = better(best, tree[l++]);
+                }
+                if ((r & 1) == 1) {
+                    best = better(best, tree[--r]);
+                }
+            }
+            return best;
+        }
+
+        private int better(int a, int b) {
+            if (weights[a] != weights[b]) {
+                return weights[a] > weights[b] ? a : b;
+            }
+            return Math.min(a, b);
+        }
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class Suggestion {
+        private Long id;
+        private String name;
+    }
+}
@@ -0,0 +1,236 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.core.annotation.Order;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.geo.Circle;
+import org.springframework.data.geo.Distance;
+import org.springframework.data.geo.GeoResult;
+import org.springframework.data.geo.GeoResults;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.RedisGeoCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 按店铺类型维护的有序店铺 id 索引：shop:type:index:{typeId} 是 ZSET，score 与 member 都是店铺 id，
+ * 顺序与原来 MySQL 按主键分页一致。shop:type:owner 记录每个店铺当前所属的类型，
+ * 修改店铺类型时用 Lua 原子地把店铺从旧索引移到新索引。
+ * 同时按类型维护 GEO 集合 shop:geo:{typeId}，用于按距离查询附近的店铺，没有坐标的店铺不在其中。
+ * <p>
+ * 默认关闭，关闭时不构建索引，分页和附近店铺查询走数据库
+ */
+@Slf4j
+@Component
+@Order(1)
+public class ShopTypeIndex implements ApplicationRunner {
+
+    private static final int BUILD_CHUNK_SIZE = 1000;
+    // 索引还没建好时，隔多久再去 Redis 检查一次
+    private static final long READY_RECHECK_MILLIS = 1000;
+
+    private static final DefaultRedisScript<Long> MOVE_SCRIPT;
+    static {
+        MOVE_SCRIPT = new DefaultRedisScript<>();
+        MOVE_SCRIPT.setLocation(new ClassPathResource("shop_type_index.lua"));
+        MOVE_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private ShopMapper shopMapper;
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private RedissonClient redissonClient;
+
+    @Value("${hmdp.shop.type-index.enabled:false}")
+    private boolean enabled;
+    // 附近店铺的搜索半径
+    @Value("${hmdp.shop.geo.radius-meters:5000}")
+    private double radiusMeters;
+
+    private volatile boolean ready;
+    private volatile long nextReadyCheck;
+
+    /**
+     * 启动时如果索引还没建过，由一个节点从 tb_shop 批量构建。
+     * 需要重建时删除 shop:type:built 后重启即可
+     */
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!enabled) {
+            return;
+        }
+        if (isBuilt()) {
+            ready = true;
+            return;
+        }
+        RLock lock = redissonClient.getLock(LOCK_SHOP_TYPE_INDEX_KEY);
+        if (!lock.tryLock()) {
+            // 其他节点正在构建，构建完成前查询走数据库
+            return;
+        }
+        try {
+            if (!isBuilt()) {
+                build();
+            }
+            ready = true;
+        } catch (Exception e) {
+            log.error("店铺类型索引构建失败", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void build() {
+        long begin = System.currentTimeMillis();
+        long lastId = 0;
+        long count = 0;
+        while (true) {
+            // 1.按 id 顺序分批读取 id 和类型
+            List<Shop> shops = shopMapper.selectList(new QueryWrapper<Shop>()
+                    .select("id", "type_id", "x", "y")
+                    .gt("id", lastId).orderByAsc("id").last("limit " + BUILD_CHUNK_SIZE));
+            if (shops.isEmpty()) {
+                break;
+            }
+            // 2.pipeline 写入索引
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (Shop shop : shops) {
+                    if (shop.getTypeId() == null) {
+                        continue;
+                    }
+                    String id = shop.getId().toString();
+                    conn.zAdd(SHOP_TYPE_INDEX_KEY + shop.getTypeId(), shop.getId(), id);
+                    if (shop.getX() != null && shop.getY() != null) {
+                        conn.geoAdd(SHOP_GEO_KEY + shop.getTypeId(), new Point(shop.getX(), shop.getY()), id);
+                    }
+                    conn.hSet(SHOP_TYPE_OWNER_KEY, id, shop.getTypeId().toString());
+                }
+                return null;
+            });
+            count += shops.size();
+            lastId = shops.get(shops.size() - 1).getId();
+            if (shops.size() < BUILD_CHUNK_SIZE) {
+                break;
+            }
+        }
+        stringRedisTemplate.opsForValue().set(SHOP_TYPE_INDEX_READY_KEY, String.valueOf(System.currentTimeMillis()));
+        log.info("店铺类型索引构建完成, 共 {} 条, 耗时 {} ms", count, System.currentTimeMillis() - begin);
+    }
+
+    private boolean isBuilt() {
+        return Boolean.TRUE.equals(stringRedisTemplate.hasKey(SHOP_TYPE_INDEX_READY_KEY));
+    }
+
+    /**
+     * 索引是否可用。其他节点构建完成后，这里最多隔 READY_RECHECK_MILLIS 感知到，之后不再访问 Redis
+     */
+    public boolean isReady() {
+        if (ready || !enabled) {
+            return ready;
+        }
+        long now = System.currentTimeMillis();
+        if (now < nextReadyCheck) {
+            return false;
+        }
+        nextReadyCheck = now + READY_RECHECK_MILLIS;
+        if (isBuilt()) {
+            ready = true;
+        }
+        return ready;
+    }
+
+    /**
+     * 新增店铺，或修改了店铺类型、坐标时调用，shop 需要带上 id、类型和坐标。
+     * 没有类型的店铺不进索引，没有坐标的店铺不进 GEO 集合
+     */
+    public void put(Shop shop) {
+        if (!enabled || shop == null || shop.getId() == null || shop.getTypeId() == null) {
+            return;
+        }
+        String x = shop.getX() == null || shop.getY() == null ? "" : shop.getX().toString();
+        String y = shop.getX() == null || shop.getY() == null ? "" : shop.getY().toString();
+        stringRedisTemplate.execute(MOVE_SCRIPT, Collections.singletonList(SHOP_TYPE_OWNER_KEY),
+                SHOP_TYPE_INDEX_KEY, SHOP_GEO_KEY, shop.getId().toString(), shop.getTypeId().toString(), x, y);
+    }
+
+    /**
+     * 按页码查询，ZSET 按排名取区间，不会像 OFFSET 一样越往后越慢
+     */
+    public List<Long> queryPage(Long typeId, int current, int pageSize) {
+        long start = (long) (current - 1) * pageSize;
+        Set<String> ids = stringRedisTemplate.opsForZSet()
+                .range(SHOP_TYPE_INDEX_KEY + typeId, start, start + pageSize - 1);
+        return toIds(ids);
+    }
+
+    /**
+     * 游标分页，返回 id 大于 lastId 的下一页
+     */
+    public List<Long> queryAfter(Long typeId, long lastId, int pageSize) {
+        Set<String> ids = stringRedisTemplate.opsForZSet()
+                .rangeByScore(SHOP_TYPE_INDEX_KEY + typeId, lastId + 1, Double.POSITIVE_INFINITY, 0, pageSize);
+        return toIds(ids);
+    }
+
+    /**
+     * 按距离由近到远滚动分页，GEORADIUS 只能从头取，取前 current 页再跳过前面的部分
+     * @return 店铺 id -> 距离（米），按距离排序
+     */
+    public Map<Long, Double> queryNearby(Long typeId, double x, double y, int current, int pageSize) {
+        int from = (current - 1) * pageSize;
+        int end = current * pageSize;
+        GeoResults<RedisGeoCommands.GeoLocation<String>> results = stringRedisTemplate.opsForGeo().radius(
+                SHOP_GEO_KEY + typeId,
+                new Circle(new Point(x, y), new Distance(radiusMeters)),
+                RedisGeoCommands.GeoRadiusCommandArgs.newGeoRadiusArgs().includeDistance().sortAscending().limit(end));
+        Map<Long, Double> nearby = new LinkedHashMap<>();
+        if (results == null || results.getContent().size() <= from) {
+            return nearby;
+        }
+        List<GeoResult<RedisGeoCommands.GeoLocation<String>>> list = results.getContent();
+        for (int i = from; i < list.size(); i++) {
+            GeoResult<RedisGeoCommands.GeoLocation<String>> result = list.get(i);
+            nearby.put(Long.valueOf(result.getContent().getName()), result.getDistance().getValue());
+        }
+        return nearby;
+    }
+
+    public double getRadiusMeters() {
+        return radiusMeters;
+    }
+
+    private static List<Long> toIds(Set<String> ids) {
+        if (ids == null || ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Long> result = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            result.add(Long.valueOf(id));
+        }
+        return result;
+    }
+}
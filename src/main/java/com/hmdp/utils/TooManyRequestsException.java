@@ -0,0 +1,18 @@
+package com.hmdp.utils;
+
+import lombok.Getter;
+
+/**
+ * 请求超过限流配置，由 WebExceptionAdvice 转换为 429 响应
+ */
+@Getter
+public class TooManyRequestsException extends RuntimeException {
+
+    // 建议客户端等待多久后重试
+    private final long retryAfterMillis;
+
+    public TooManyRequestsException(String message, long retryAfterMillis) {
+        super(message);
+        this.retryAfterMillis = retryAfterMillis;
+    }
+}
@@ -1,20 +1,52 @@
 local voucherId=ARGV[1]
 local userId=ARGV[2]
-local orderId=ARGV[3]
+-- 订单 id 的时间戳部分，序列号在有购买资格后才自增
+local timestamp=ARGV[3]
+-- 订单状态 key 的前缀，带有订单 stream 的 hash tag
+local statusPrefix=ARGV[4]
+local statusTtl=ARGV[5]
+-- 秒杀时间窗口，调用方从 seckill:voucher:{voucherId} 读取后传入，脚本不再访问其他 slot 的 key
+local beginTime=tonumber(ARGV[6])
+local endTime=tonumber(ARGV[7])
+-- 订单 stream 的分区号，放在序列号的低 8 位，各分区的序列号 key 不同也不会重复
+local partition=tonumber(ARGV[8])
+-- 订单 stream
+local streamKey=KEYS[1]
+-- 库存和已下单用户集合，开启分片时是该用户所在的分片
+local stockKey=KEYS[2]
+local orderKey=KEYS[3]
+-- 该分区的订单 id 序列号
+local seqKey=KEYS[4]
 
-local stockKey='seckill:stock:'..voucherId
-local orderKey='seckill:order:'..voucherId
-
-if(tonumber(redis.call('get', stockKey))<=0) then
-    return 1
+-- 用 Redis 的时间判断是否在秒杀时间内，不依赖各节点的时钟
+if(redis.replicate_commands) then
+    redis.replicate_commands()
+end
+local time=redis.call('time')
+local now=tonumber(time[1])*1000+math.floor(tonumber(time[2])/1000)
+if(now<beginTime) then
+    return {3, 0}
+end
+if(now>endTime) then
+    return {4, 0}
 end
 
+-- 先判断重复下单，分片库存为空时调用方还要去其他分片找库存
 if(redis.call('sismember', orderKey, userId)==1) then
-    return 2
+    return {2, 0}
+end
+
+if(tonumber(redis.call('get', stockKey) or '0')<=0) then
+    return {1, 0}
 end
 
 redis.call('incrby', stockKey, -1)
 redis.call('sadd', orderKey, userId)
 
-redis.call('xadd', 'stream.orders', '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
-return 0
\ No newline at end of file
+local seq=redis.call('incr', seqKey)*256+partition
+redis.call('xadd', streamKey, '*', 'userId', userId, 'voucherId', voucherId, 'timestamp', timestamp, 'seq', seq)
+-- 订单状态，订单 id 由时间戳和序列号拼接，key 也用这两部分
+local statusKey=statusPrefix..timestamp..':'..seq
+redis.call('hset', statusKey, 'status', 'QUEUED', 'userId', userId)
+redis.call('expire', statusKey, statusTtl)
+return {0, seq}
@@ -0,0 +1,35 @@
+-- 从其他分片扣到库存后，在用户所在分片登记并发送订单；期间用户已经下过单或秒杀已结束时返回失败，由调用方把库存退回
+local voucherId=ARGV[1]
+local userId=ARGV[2]
+local timestamp=ARGV[3]
+local statusPrefix=ARGV[4]
+local statusTtl=ARGV[5]
+local endTime=tonumber(ARGV[7])
+local partition=tonumber(ARGV[8])
+-- 以下 key 与 seckill.lua 相同，都在用户所在分片的 slot 中
+local streamKey=KEYS[1]
+local orderKey=KEYS[2]
+local seqKey=KEYS[3]
+
+-- 扣库存期间秒杀刚好结束
+if(redis.replicate_commands) then
+    redis.replicate_commands()
+end
+local time=redis.call('time')
+local now=tonumber(time[1])*1000+math.floor(tonumber(time[2])/1000)
+if(now>endTime) then
+    return {4, 0}
+end
+
+if(redis.call('sismember', orderKey, userId)==1) then
+    return {2, 0}
+end
+
+redis.call('sadd', orderKey, userId)
+local seq=redis.call('incr', seqKey)*256+partition
+redis.call('xadd', streamKey, '*', 'userId', userId, 'voucherId', voucherId, 'timestamp', timestamp, 'seq', seq)
+-- 订单状态，订单 id 由时间戳和序列号拼接，key 也用这两部分
+local statusKey=statusPrefix..timestamp..':'..seq
+redis.call('hset', statusKey, 'status', 'QUEUED', 'userId', userId)
+redis.call('expire', statusKey, statusTtl)
+return {0, seq}
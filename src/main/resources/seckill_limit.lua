@@ -0,0 +1,38 @@
+-- 秒杀接口的全局令牌桶，按 Redis 服务器时间补充令牌
+-- 拿到令牌返回 0，否则返回还要等待的毫秒数
+local bucketKey=KEYS[1]
+-- 每秒补充的令牌数
+local rate=tonumber(ARGV[1])
+-- 桶的容量，允许的瞬时突发
+local burst=tonumber(ARGV[2])
+
+-- 使用 TIME 之后要按命令复制，Redis 7 以前需要显式打开
+if(redis.replicate_commands) then
+    redis.replicate_commands()
+end
+local time=redis.call('time')
+local now=tonumber(time[1])*1000+math.floor(tonumber(time[2])/1000)
+
+local bucket=redis.call('hmget', bucketKey, 'tokens', 'ts')
+local tokens=tonumber(bucket[1])
+local ts=tonumber(bucket[2])
+if(tokens==nil or ts==nil) then
+    tokens=burst
+    ts=now
+end
+-- 按经过的时间补充令牌，不超过容量
+if(now>ts) then
+    tokens=math.min(burst, tokens+(now-ts)*rate/1000)
+    ts=now
+end
+
+local wait=0
+if(tokens>=1) then
+    tokens=tokens-1
+else
+    wait=math.ceil((1-tokens)*1000/rate)
+end
+redis.call('hset', bucketKey, 'tokens', tostring(tokens), 'ts', ts)
+-- 桶补满之后就没必要保留了
+redis.call('pexpire', bucketKey, math.ceil(burst*1000/rate)+1000)
+return wait
@@ -0,0 +1,8 @@
+-- 从其他库存分片扣一件，成功返回 1。每次只访问一个分片
+local stockKey=KEYS[1]
+
+if(tonumber(redis.call('get', stockKey) or '0')<=0) then
+    return 0
+end
+redis.call('incrby', stockKey, -1)
+return 1
@@ -0,0 +1,23 @@
+-- 把店铺放到对应类型的索引和 GEO 集合里，类型变化时从旧类型中移除；坐标为空时不放入 GEO 集合
+local ownerKey=KEYS[1]
+local prefix=ARGV[1]
+local geoPrefix=ARGV[2]
+local shopId=ARGV[3]
+local typeId=ARGV[4]
+local x=ARGV[5]
+local y=ARGV[6]
+
+local oldTypeId=redis.call('hget', ownerKey, shopId)
+if(oldTypeId and oldTypeId~=typeId) then
+    redis.call('zrem', prefix..oldTypeId, shopId)
+    redis.call('zrem', geoPrefix..oldTypeId, shopId)
+end
+
+redis.call('zadd', prefix..typeId, shopId, shopId)
+if(x=='' or y=='') then
+    redis.call('zrem', geoPrefix..typeId, shopId)
+else
+    redis.call('geoadd', geoPrefix..typeId, x, y, shopId)
+end
+redis.call('hset', ownerKey, shopId, typeId)
+return 0
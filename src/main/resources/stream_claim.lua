@@ -0,0 +1,9 @@
+-- 把其他消费者空闲太久的消息转到当前消费者名下（只转移归属，不增加投递次数），返回转移的数量
+local streamKey=KEYS[1]
+local group=ARGV[1]
+local consumer=ARGV[2]
+local minIdle=ARGV[3]
+local count=ARGV[4]
+
+local result=redis.call('xautoclaim', streamKey, group, consumer, minIdle, '0-0', 'COUNT', count, 'JUSTID')
+return #result[2]
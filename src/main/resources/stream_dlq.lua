@@ -0,0 +1,24 @@
+-- 把多次处理失败的消息连同来源信息写入死信 stream，并从原 stream 的待确认列表中移除，返回消息原来的字段
+local streamKey=KEYS[1]
+local dlqKey=KEYS[2]
+local group=ARGV[1]
+local id=ARGV[2]
+local deliveries=ARGV[3]
+
+local entries=redis.call('xrange', streamKey, id, id)
+local original={}
+if(#entries>0) then
+    local fields=entries[1][2]
+    for i=1,#fields do
+        original[i]=fields[i]
+    end
+    table.insert(fields, 'sourceStream')
+    table.insert(fields, streamKey)
+    table.insert(fields, 'sourceId')
+    table.insert(fields, id)
+    table.insert(fields, 'deliveries')
+    table.insert(fields, deliveries)
+    redis.call('xadd', dlqKey, '*', unpack(fields))
+end
+redis.call('xack', streamKey, group, id)
+return original
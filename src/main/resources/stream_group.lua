@@ -0,0 +1,6 @@
+-- 创建消费者组，stream 不存在时一并创建，组已存在时忽略
+local ok=pcall(redis.call, 'xgroup', 'create', KEYS[1], ARGV[1], '0', 'MKSTREAM')
+if(ok) then
+    return 1
+end
+return 0
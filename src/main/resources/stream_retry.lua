@@ -0,0 +1,7 @@
+-- 重新投递一条待确认的消息给当前消费者，投递次数加一，返回 {id, {field, value, ...}}，消息已被删除时返回空
+local streamKey=KEYS[1]
+local group=ARGV[1]
+local consumer=ARGV[2]
+local id=ARGV[3]
+
+return redis.call('xclaim', streamKey, group, consumer, 0, id)
@@ -1,15 +1,32 @@
 package com.hmdp;
 
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.mapper.ShopMapper;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IVoucherOrderService;
 import com.hmdp.service.impl.ShopServiceImpl;
 import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.ShopTypeIndex;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.util.ReflectionTestUtils;
 
 import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
 @SpringBootTest
 class HmDianPingApplicationTests {
     @Resource
@@ -17,6 +34,14 @@ class HmDianPingApplicationTests {
 
     @Resource
     private RedisIdWorker redisIdWorker;
+    @Resource
+    private ShopTypeIndex shopTypeIndex;
+    @Resource
+    private ShopMapper shopMapper;
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
     private ExecutorService es= Executors.newFixedThreadPool(500);
 
     @Test
@@ -43,5 +68,97 @@ class HmDianPingApplicationTests {
         System.out.println("300个线程运行自增任务，创建 30000个 ID。共耗时:"+(end-begin));
     }
 
+    @Test
+    void testNearbyBenchmark() {
+        // 附近美食，第 1~5 页，对比 Redis GEO 与 MySQL 计算距离
+        long typeId=1L;
+        double x=120.149192, y=30.316078;
+        int rounds=1000;
+        ReflectionTestUtils.setField(shopTypeIndex, "enabled", true);
+        shopTypeIndex.run(null);
+        assertTrue(shopTypeIndex.isReady());
+        for(int i=0;i<100;i++){
+            shopTypeIndex.queryNearby(typeId, x, y, 1, 5);
+            shopMapper.queryNearby(typeId, x, y, shopTypeIndex.getRadiusMeters(), 0, 5);
+        }
+        long begin=System.currentTimeMillis();
+        for(int i=0;i<rounds;i++){
+            shopTypeIndex.queryNearby(typeId, x, y, i%5+1, 5);
+        }
+        long geo=System.currentTimeMillis()-begin;
+        begin=System.currentTimeMillis();
+        for(int i=0;i<rounds;i++){
+            shopMapper.queryNearby(typeId, x, y, shopTypeIndex.getRadiusMeters(), i%5*5, 5);
+        }
+        long mysql=System.currentTimeMillis()-begin;
+        System.out.println(rounds+"次附近店铺查询，Redis GEO 耗时:"+geo+"ms，MySQL 距离扫描耗时:"+mysql+"ms");
+
+        // 两种方式的前 5 页应当一致：地球半径取值和 geohash 精度不同，同一店铺的距离允许 0.1% 的误差，
+        // 只在 MySQL 结果中出现的店铺只能是与第 25 名距离几乎相同的店铺
+        Map<Long, Double> geoTop=new LinkedHashMap<>();
+        for(int i=1;i<=5;i++){
+            geoTop.putAll(shopTypeIndex.queryNearby(typeId, x, y, i, 5));
+        }
+        List<Shop> mysqlTop=shopMapper.queryNearby(typeId, x, y, shopTypeIndex.getRadiusMeters(), 0, 25);
+        assertFalse(mysqlTop.isEmpty());
+        assertEquals(mysqlTop.size(), geoTop.size());
+        double last=mysqlTop.get(mysqlTop.size()-1).getDistance();
+        for(Shop shop:mysqlTop){
+            Double distance=geoTop.get(shop.getId());
+            if(distance!=null){
+                assertEquals(shop.getDistance(), distance, 1+shop.getDistance()*0.001);
+            }else{
+                assertEquals(last, shop.getDistance(), 1+last*0.001);
+            }
+        }
+    }
+
+    @Test
+    void testOrderBatchBenchmark() {
+        // 逐单处理与批量处理各写入 2000 单，用户 id 随机，先把库存加够，结束后删除订单并恢复库存
+        int total=2000, batchSize=100;
+        SeckillVoucher voucher=seckillVoucherService.list().get(0);
+        Long voucherId=voucher.getVoucherId();
+        int stockBefore=seckillVoucherService.getById(voucherId).getStock();
+        seckillVoucherService.update().setSql("stock=stock+"+total*2).eq("voucher_id", voucherId).update();
+        long userBase=System.currentTimeMillis()*1000;
+        QueryWrapper<VoucherOrder> created=new QueryWrapper<VoucherOrder>()
+                .eq("voucher_id", voucherId).ge("user_id", userBase).lt("user_id", userBase+total*2);
+        int inserted=0;
+        try{
+            long begin=System.currentTimeMillis();
+            for(int i=0;i<total;i++){
+                voucherOrderService.createVoucherOrder(newOrder(userBase+i, voucherId));
+            }
+            long single=System.currentTimeMillis()-begin;
+            begin=System.currentTimeMillis();
+            for(int i=0;i<total;i+=batchSize){
+                List<VoucherOrder> orders=new ArrayList<>(batchSize);
+                for(int j=i;j<i+batchSize;j++){
+                    orders.add(newOrder(userBase+total+j, voucherId));
+                }
+                voucherOrderService.createVoucherOrders(orders);
+            }
+            long batch=System.currentTimeMillis()-begin;
+            System.out.println(total+"单，逐单处理耗时:"+single+"ms，每批"+batchSize+"单批量处理耗时:"+batch+"ms");
+
+            // 两种方式都应写入全部订单，扣掉的库存正好是加上的库存
+            inserted=voucherOrderService.count(created);
+            assertEquals(total*2, inserted);
+            assertEquals(stockBefore, seckillVoucherService.getById(voucherId).getStock());
+        }finally{
+            voucherOrderService.remove(created);
+            seckillVoucherService.update().setSql("stock=stock+"+inserted+"-"+total*2).eq("voucher_id", voucherId).update();
+        }
+    }
+
+    private VoucherOrder newOrder(long userId, Long voucherId){
+        VoucherOrder order=new VoucherOrder();
+        order.setId(redisIdWorker.nextId("order"));
+        order.setUserId(userId);
+        order.setVoucherId(voucherId);
+        return order;
+    }
+
 
 }
@@ -0,0 +1,84 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.entity.Shop;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BinaryCacheCodecTest {
+
+    private static final int THRESHOLD = 256;
+
+    private final BinaryCacheCodec codec = new BinaryCacheCodec(THRESHOLD);
+
+    @Test
+    void testRoundTrip() {
+        Shop shop = newShop("102茶餐厅");
+        long expireAt = System.currentTimeMillis() + 60000;
+
+        CacheEntry<Shop> entry = codec.decode(codec.encode(shop, expireAt, 35), Shop.class);
+
+        assertEquals(shop, entry.getValue());
+        assertEquals(expireAt, entry.getExpireAt());
+        assertEquals(35, entry.getRebuildMillis());
+    }
+
+    @Test
+    void testRoundTripWithoutLogicalExpire() {
+        Shop shop = newShop("102茶餐厅");
+
+        CacheEntry<Shop> entry = codec.decode(codec.encode(shop, 0), Shop.class);
+
+        assertEquals(shop, entry.getValue());
+        assertEquals(0, entry.getExpireAt());
+    }
+
+    @Test
+    void testReadsLegacyJson() {
+        // 切换编码前由 JsonCacheCodec 写入的值，包括普通值和逻辑过期的 RedisData
+        JsonCacheCodec json = new JsonCacheCodec();
+        Shop shop = newShop("102茶餐厅");
+        long expireAt = System.currentTimeMillis() / 1000 * 1000 + 60000;
+
+        CacheEntry<Shop> plain = codec.decode(json.encode(shop, 0), Shop.class);
+        assertEquals(shop, plain.getValue());
+        assertEquals(0, plain.getExpireAt());
+
+        CacheEntry<Shop> logical = codec.decode(json.encode(shop, expireAt), Shop.class);
+        assertEquals(shop, logical.getValue());
+        assertEquals(expireAt, logical.getExpireAt());
+    }
+
+    @Test
+    void testCompressesOnlyAboveThreshold() {
+        Shop small = newShop("102茶餐厅");
+        byte[] smallBytes = codec.encode(small, 0);
+        assertEquals(0, smallBytes[1] & 1, "小于阈值的值不应压缩");
+
+        Shop large = newShop(StrUtil.repeat("茶餐厅", 200));
+        byte[] largeBytes = codec.encode(large, 0);
+        byte[] uncompressed = new BinaryCacheCodec(0).encode(large, 0);
+        assertEquals(1, largeBytes[1] & 1, "超过阈值的值应当压缩");
+        assertTrue(largeBytes.length < uncompressed.length);
+        assertEquals(large, codec.decode(largeBytes, Shop.class).getValue());
+        assertEquals(large, codec.decode(uncompressed, Shop.class).getValue());
+    }
+
+    private static Shop newShop(String name) {
+        return new Shop()
+                .setId(1L)
+                .setName(name)
+                .setTypeId(1L)
+                .setArea("大关")
+                .setAddress("金华路锦昌文华苑29号")
+                .setX(120.149192)
+                .setY(30.316078)
+                .setAvgPrice(80L)
+                .setSold(4215)
+                .setComments(3035)
+                .setScore(37)
+                .setOpenHours("10:00-22:00");
+    }
+}
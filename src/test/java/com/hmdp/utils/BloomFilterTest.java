@@ -0,0 +1,58 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BloomFilterTest {
+
+    private static final int N = 100000;
+    private static final double FPP = 0.01;
+    private static final long MAX_BYTES = 64 * 1024 * 1024;
+
+    @Test
+    void testNoFalseNegatives() {
+        BloomFilter filter = new BloomFilter(N, FPP, MAX_BYTES);
+        for (long id = 1; id <= N; id++) {
+            filter.put(id);
+        }
+        for (long id = 1; id <= N; id++) {
+            assertTrue(filter.mightContain(id), "已加入的 id 被判为不存在: " + id);
+        }
+    }
+
+    @Test
+    void testFalsePositiveRateNearConfigured() {
+        BloomFilter filter = new BloomFilter(N, FPP, MAX_BYTES);
+        for (long id = 1; id <= N; id++) {
+            filter.put(id);
+        }
+        // 用没有加入过的 id 统计误判率，允许为配置值的两倍以内
+        int trials = 200000;
+        int falsePositives = 0;
+        for (long id = N + 1; id <= N + trials; id++) {
+            if (filter.mightContain(id)) {
+                falsePositives++;
+            }
+        }
+        double rate = (double) falsePositives / trials;
+        assertTrue(rate < FPP * 2, "误判率过高: " + rate);
+        assertEquals(FPP, filter.expectedFpp(), FPP);
+    }
+
+    @Test
+    void testRepeatedPutNotCounted() {
+        BloomFilter filter = new BloomFilter(1000, FPP, MAX_BYTES);
+        assertTrue(filter.put(42));
+        assertFalse(filter.put(42));
+        assertEquals(1, filter.getInsertions());
+    }
+
+    @Test
+    void testMaxBytesCapsBitSize() {
+        BloomFilter filter = new BloomFilter(N, FPP, 1024);
+        assertEquals(1024 * 8, filter.getBitSize());
+    }
+}
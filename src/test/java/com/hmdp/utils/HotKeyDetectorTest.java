@@ -0,0 +1,104 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static com.hmdp.utils.RedisConstants.CACHE_HOT_KEY_CHANNEL;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+class HotKeyDetectorTest {
+
+    private final StringRedisTemplate stringRedisTemplate = mock(StringRedisTemplate.class);
+
+    @Test
+    void testEstimateNeverBelowTrueCount() {
+        // key 数远多于 sketch 的宽度，必然有冲突；估算值只会偏大，且大部分在 e * N / WIDTH 以内
+        HotKeyDetector detector = newDetector(Long.MAX_VALUE);
+        int keys = 5000;
+        long total = 0;
+        for (int i = 0; i < keys; i++) {
+            int count = i % 50 + 1;
+            for (int j = 0; j < count; j++) {
+                detector.record("cache:shop:" + i);
+            }
+            total += count;
+        }
+        double bound = Math.E * total / 1024;
+        int withinBound = 0;
+        for (int i = 0; i < keys; i++) {
+            long count = i % 50 + 1;
+            long estimate = detector.estimate("cache:shop:" + i);
+            assertTrue(estimate >= count, "估算值小于真实值: " + estimate + " < " + count);
+            if (estimate - count <= bound) {
+                withinBound++;
+            }
+        }
+        assertTrue(withinBound >= keys * 0.9, "超出误差范围的 key 过多: " + (keys - withinBound));
+    }
+
+    @Test
+    void testRotateExpiresOldCounts() {
+        HotKeyDetector detector = newDetector(Long.MAX_VALUE);
+        for (int i = 0; i < 100; i++) {
+            detector.record("cache:shop:1");
+        }
+        assertEquals(100, detector.estimate("cache:shop:1"));
+        // 滑动窗口整个转过一圈后，之前的计数全部清掉
+        for (int i = 0; i < 5; i++) {
+            detector.rotate();
+        }
+        assertEquals(0, detector.estimate("cache:shop:1"));
+    }
+
+    @Test
+    void testPromoteAndBroadcastEstimate() {
+        HotKeyDetector detector = newDetector(10);
+        for (int i = 0; i < 10; i++) {
+            detector.record("cache:shop:1");
+        }
+        assertTrue(detector.isHot("cache:shop:1"));
+        verify(stringRedisTemplate).convertAndSend(CACHE_HOT_KEY_CHANNEL, "10,cache:shop:1");
+    }
+
+    @Test
+    void testRemoteKeyKeepsEstimate() {
+        HotKeyDetector detector = newDetector(10);
+        detector.onMessage(message("5000,cache:shop:1"), null);
+        // 旧版本节点只发送 key
+        detector.onMessage(message("cache:shop:2"), null);
+
+        List<HotKeyDetector.HotKey> hotKeys = detector.getHotKeys();
+        assertEquals(2, hotKeys.size());
+        assertEquals("cache:shop:1", hotKeys.get(0).getKey());
+        assertEquals(5000, hotKeys.get(0).getEstimate());
+        assertEquals("cache:shop:2", hotKeys.get(1).getKey());
+        assertEquals(0, hotKeys.get(1).getEstimate());
+    }
+
+    private HotKeyDetector newDetector(long threshold) {
+        HotKeyDetector detector = new HotKeyDetector();
+        ReflectionTestUtils.setField(detector, "stringRedisTemplate", stringRedisTemplate);
+        ReflectionTestUtils.setField(detector, "enabled", true);
+        ReflectionTestUtils.setField(detector, "sampleRate", 1);
+        ReflectionTestUtils.setField(detector, "threshold", threshold);
+        ReflectionTestUtils.setField(detector, "windowSeconds", 10);
+        ReflectionTestUtils.setField(detector, "bucketCount", 5);
+        ReflectionTestUtils.setField(detector, "topK", 50);
+        ReflectionTestUtils.setField(detector, "holdSeconds", 30L);
+        ReflectionTestUtils.invokeMethod(detector, "init");
+        return detector;
+    }
+
+    private static DefaultMessage message(String body) {
+        return new DefaultMessage(CACHE_HOT_KEY_CHANNEL.getBytes(StandardCharsets.UTF_8),
+                body.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,183 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ShopGeoGridTest {
+
+    private static final double EARTH_RADIUS = 6372797.560856;
+    private static final double[] RADII = {500, 3000, 20000};
+    private static final int PAGE_SIZE = 5;
+
+    private final ShopMapper shopMapper = mock(ShopMapper.class);
+    private final Random random = new Random(42);
+
+    @Test
+    void testQueryMatchesBruteForce() {
+        List<Shop> shops = randomShops(2000);
+        ShopGeoGrid grid = newGrid(shops);
+
+        assertTrue(grid.isReady());
+        assertMatchesBruteForce(grid, shops);
+    }
+
+    @Test
+    void testQueryMatchesBruteForceAfterChanges() {
+        List<Shop> shops = randomShops(2000);
+        ShopGeoGrid grid = newGrid(shops);
+
+        // 移动一批店铺、删除一批店铺，变更时重新查库只返回还存在的店铺
+        List<Long> changedIds = new ArrayList<>();
+        List<Shop> changed = new ArrayList<>();
+        List<Shop> remaining = new ArrayList<>();
+        for (Shop shop : shops) {
+            if (shop.getId() % 10 == 0) {
+                changedIds.add(shop.getId());
+                shop.setX(120.15 + (random.nextDouble() - 0.5) * 0.4);
+                shop.setY(30.3 + (random.nextDouble() - 0.5) * 0.4);
+                changed.add(shop);
+            } else if (shop.getId() % 10 == 1) {
+                changedIds.add(shop.getId());
+                continue;
+            }
+            remaining.add(shop);
+        }
+        when(shopMapper.selectList(any())).thenReturn(changed);
+        grid.onShopChanged(new ShopChangedEvent(this, changedIds));
+
+        assertMatchesBruteForce(grid, remaining);
+    }
+
+    @Test
+    void testRejectsTooSmallCell() {
+        ShopGeoGrid grid = new ShopGeoGrid();
+        ReflectionTestUtils.setField(grid, "enabled", true);
+        ReflectionTestUtils.setField(grid, "cellDegrees", 0.0001);
+        assertThrows(IllegalStateException.class, () -> grid.run(null));
+    }
+
+    @Test
+    void testLongLongMapMatchesHashMap() {
+        // 随机插入、覆盖、删除；元素少时表小，删除后前移经常要绕过表尾
+        assertLongLongMapMatchesHashMap(12, 200000);
+        assertLongLongMapMatchesHashMap(5000, 200000);
+    }
+
+    private void assertLongLongMapMatchesHashMap(int maxSize, int operations) {
+        ShopGeoGrid.LongLongMap map = new ShopGeoGrid.LongLongMap(4);
+        Map<Long, Long> expected = new HashMap<>();
+        List<Long> keys = new ArrayList<>();
+        for (int i = 0; i < operations; i++) {
+            int op = random.nextInt(4);
+            if (op == 0 && !keys.isEmpty()) {
+                long key = keys.remove(random.nextInt(keys.size()));
+                assertEquals((long) expected.remove(key), map.remove(key));
+                assertEquals(ShopGeoGrid.LongLongMap.NO_VALUE, map.get(key));
+            } else if (op == 1 && !keys.isEmpty()) {
+                long key = keys.get(random.nextInt(keys.size()));
+                long value = random.nextLong();
+                expected.put(key, value);
+                map.put(key, value);
+            } else if (keys.size() < maxSize) {
+                long key = random.nextLong() & Long.MAX_VALUE | 1;
+                long value = random.nextLong();
+                keys.add(key);
+                expected.put(key, value);
+                map.put(key, value);
+            }
+        }
+        assertEquals(expected.size(), map.size());
+        for (Map.Entry<Long, Long> entry : expected.entrySet()) {
+            assertEquals((long) entry.getValue(), map.get(entry.getKey()));
+        }
+    }
+
+    private void assertMatchesBruteForce(ShopGeoGrid grid, List<Shop> shops) {
+        for (int q = 0; q < 20; q++) {
+            long typeId = random.nextInt(3) + 1;
+            double x = 120.15 + (random.nextDouble() - 0.5) * 0.4;
+            double y = 30.3 + (random.nextDouble() - 0.5) * 0.4;
+            for (double radius : RADII) {
+                List<Shop> expected = bruteForce(shops, typeId, x, y, radius);
+                for (int current = 1; current <= 4; current++) {
+                    Map<Long, Double> page = grid.queryNearby(typeId, x, y, radius, current, PAGE_SIZE);
+                    int from = Math.min((current - 1) * PAGE_SIZE, expected.size());
+                    int to = Math.min(current * PAGE_SIZE, expected.size());
+                    List<Long> expectedIds = new ArrayList<>();
+                    for (Shop shop : expected.subList(from, to)) {
+                        expectedIds.add(shop.getId());
+                    }
+                    assertEquals(expectedIds, new ArrayList<>(page.keySet()));
+                    for (Shop shop : expected.subList(from, to)) {
+                        assertEquals(distance(x, y, shop.getX(), shop.getY()), page.get(shop.getId()), 1e-6);
+                    }
+                }
+            }
+        }
+    }
+
+    private static List<Shop> bruteForce(List<Shop> shops, long typeId, double x, double y, double radius) {
+        List<Shop> result = new ArrayList<>();
+        for (Shop shop : shops) {
+            if (shop.getTypeId() != null && shop.getTypeId() == typeId && shop.getX() != null
+                    && distance(x, y, shop.getX(), shop.getY()) <= radius) {
+                result.add(shop);
+            }
+        }
+        result.sort(Comparator.comparingDouble(shop -> distance(x, y, shop.getX(), shop.getY())));
+        return result;
+    }
+
+    /**
+     * 杭州附近 0.4 度见方内的随机店铺，部分没有坐标
+     */
+    private List<Shop> randomShops(int n) {
+        List<Shop> shops = new ArrayList<>();
+        for (long id = 1; id <= n; id++) {
+            Shop shop = new Shop().setId(id).setTypeId((long) random.nextInt(3) + 1);
+            if (id % 50 != 0) {
+                shop.setX(120.15 + (random.nextDouble() - 0.5) * 0.4);
+                shop.setY(30.3 + (random.nextDouble() - 0.5) * 0.4);
+            }
+            shops.add(shop);
+        }
+        return shops;
+    }
+
+    private ShopGeoGrid newGrid(List<Shop> shops) {
+        ShopGeoGrid grid = new ShopGeoGrid();
+        ReflectionTestUtils.setField(grid, "shopMapper", shopMapper);
+        ReflectionTestUtils.setField(grid, "enabled", true);
+        ReflectionTestUtils.setField(grid, "cellDegrees", 0.01);
+        ReflectionTestUtils.setField(grid, "maxSearchMeters", 50000.0);
+        // 不足一批，构建时只查一次
+        when(shopMapper.selectList(any())).thenReturn(new ArrayList<>(shops), Collections.emptyList());
+        ReflectionTestUtils.invokeMethod(grid, "build");
+        return grid;
+    }
+
+    private static double distance(double x1, double y1, double x2, double y2) {
+        double lat1 = Math.toRadians(y1);
+        double lat2 = Math.toRadians(y2);
+        double u = Math.sin((lat2 - lat1) / 2);
+        double v = Math.sin(Math.toRadians(x2 - x1) / 2);
+        return 2 * EARTH_RADIUS * Math.asin(Math.sqrt(u * u + Math.cos(lat1) * Math.cos(lat2) * v * v));
+    }
+}
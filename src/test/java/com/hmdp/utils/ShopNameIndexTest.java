@@ -0,0 +1,134 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ShopNameIndexTest {
+
+    private static final String CHARS = "茶餐厅火锅烧烤小吃面馆咖啡ab1";
+
+    private final Random random = new Random(42);
+
+    @Test
+    void testPostingRoundTrip() {
+        // 差值覆盖 varint 1~5 字节的边界
+        int[] docs = {0, 1, 128, 129, 16512, 16513, 2113664, 2113665, 270549120, 270549121, 538984577};
+        ShopNameIndex.Posting posting = postingOf(docs);
+
+        assertArrayEquals(docs, posting.decode());
+        ShopNameIndex.Posting.Cursor cursor = posting.cursor();
+        for (int doc : docs) {
+            assertEquals(doc, cursor.next());
+        }
+        assertFalse(cursor.hasNext());
+    }
+
+    @Test
+    void testPostingCopyIsIndependent() {
+        ShopNameIndex.Posting posting = postingOf(new int[]{3, 7});
+        ShopNameIndex.Posting copy = posting.copy();
+        copy.append(300);
+
+        assertArrayEquals(new int[]{3, 7}, posting.decode());
+        assertArrayEquals(new int[]{3, 7, 300}, copy.decode());
+    }
+
+    @Test
+    void testIntersectMatchesSets() {
+        for (int round = 0; round < 200; round++) {
+            TreeSet<Integer> a = randomDocs(random.nextInt(200), 1000);
+            TreeSet<Integer> b = randomDocs(random.nextInt(200), 1000);
+            Set<Integer> expected = new TreeSet<>(a);
+            expected.retainAll(b);
+
+            int[] result = ShopNameIndex.intersect(toArray(a), postingOf(toArray(b)));
+
+            assertArrayEquals(toArray(expected), result);
+        }
+    }
+
+    @Test
+    void testSearchMatchesContains() {
+        List<Shop> shops = new ArrayList<>();
+        for (long id = 1; id <= 3000; id++) {
+            shops.add(new Shop().setId(id).setName(randomName(random.nextInt(8) + 1)));
+        }
+        ShopMapper shopMapper = mock(ShopMapper.class);
+        ShopNameIndex index = new ShopNameIndex();
+        ReflectionTestUtils.setField(index, "shopMapper", shopMapper);
+        ReflectionTestUtils.setField(index, "enabled", true);
+        when(shopMapper.selectList(any())).thenReturn(shops, Collections.emptyList());
+        ReflectionTestUtils.invokeMethod(index, "build");
+
+        for (int q = 0; q < 200; q++) {
+            String keyword = randomName(random.nextInt(3) + 1);
+            Set<Long> expected = new HashSet<>();
+            for (Shop shop : shops) {
+                if (shop.getName().contains(keyword)) {
+                    expected.add(shop.getId());
+                }
+            }
+            // 逐页取完，拼起来正好是所有匹配的店铺，没有重复
+            List<Long> all = new ArrayList<>();
+            for (int current = 1; ; current++) {
+                List<Long> page = index.search(keyword, current, 50);
+                all.addAll(page);
+                if (page.size() < 50) {
+                    break;
+                }
+            }
+            assertEquals(expected.size(), all.size());
+            assertEquals(expected, new HashSet<>(all));
+        }
+    }
+
+    private static ShopNameIndex.Posting postingOf(int[] docs) {
+        ShopNameIndex.Posting posting = new ShopNameIndex.Posting();
+        for (int doc : docs) {
+            posting.append(doc);
+        }
+        return posting;
+    }
+
+    private TreeSet<Integer> randomDocs(int n, int max) {
+        TreeSet<Integer> docs = new TreeSet<>();
+        for (int i = 0; i < n; i++) {
+            docs.add(random.nextInt(max));
+        }
+        return docs;
+    }
+
+    private static int[] toArray(Set<Integer> docs) {
+        int[] array = new int[docs.size()];
+        int i = 0;
+        for (int doc : docs) {
+            array[i++] = doc;
+        }
+        return array;
+    }
+
+    private String randomName(int length) {
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            name.append(CHARS.charAt(random.nextInt(CHARS.length())));
+        }
+        return name.toString();
+    }
+}
@@ -0,0 +1,119 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ShopNameSuggesterTest {
+
+    private static final String CHARS = "茶餐厅火锅小吃ab";
+    private static final int MAX_LIMIT = 20;
+
+    private final ShopMapper shopMapper = mock(ShopMapper.class);
+    private final Random random = new Random(42);
+
+    @Test
+    void testSuggestReturnsTopKInOrder() {
+        // 名称短、字符少、热度取值范围小，前缀区间大且热度经常相同
+        List<Shop> shops = new ArrayList<>();
+        for (long id = 1; id <= 3000; id++) {
+            shops.add(new Shop().setId(id).setName(randomName(random.nextInt(6) + 1))
+                    .setSold(random.nextInt(20)).setScore(random.nextInt(5)));
+        }
+        ShopNameSuggester suggester = newSuggester();
+        when(shopMapper.selectList(any())).thenReturn(shops, Collections.emptyList());
+        suggester.rebuildIfNeeded();
+        assertTrue(suggester.isReady());
+
+        for (int q = 0; q < 300; q++) {
+            String prefix = randomName(random.nextInt(3) + 1);
+            int limit = random.nextInt(MAX_LIMIT + 5) + 1;
+            List<Long> expected = bruteForce(shops, prefix, Math.min(limit, MAX_LIMIT));
+
+            List<Long> actual = new ArrayList<>();
+            for (ShopNameSuggester.Suggestion suggestion : suggester.suggest(prefix, limit)) {
+                actual.add(suggestion.getId());
+            }
+
+            assertEquals(expected, actual, "prefix=" + prefix + ", limit=" + limit);
+        }
+    }
+
+    @Test
+    void testBlankPrefixReturnsNothing() {
+        ShopNameSuggester suggester = newSuggester();
+        when(shopMapper.selectList(any())).thenReturn(
+                Collections.singletonList(new Shop().setId(1L).setName("茶餐厅")), Collections.emptyList());
+        suggester.rebuildIfNeeded();
+
+        assertTrue(suggester.suggest(" ", 10).isEmpty());
+        assertTrue(suggester.suggest("茶", 0).isEmpty());
+    }
+
+    @Test
+    void testFallsBackToDbBeforeBuild() {
+        ShopNameSuggester suggester = newSuggester();
+        when(shopMapper.selectList(any())).thenReturn(
+                Collections.singletonList(new Shop().setId(7L).setName("茶餐厅")));
+
+        List<ShopNameSuggester.Suggestion> suggestions = suggester.suggest("茶", 10);
+
+        assertEquals(1, suggestions.size());
+        assertEquals(7L, (long) suggestions.get(0).getId());
+    }
+
+    /**
+     * 热度高的在前；热度相同时按规范化后的名称排序，名称也相同时按 id
+     */
+    private static List<Long> bruteForce(List<Shop> shops, String prefix, int limit) {
+        String key = ShopNameIndex.normalize(prefix);
+        List<Shop> matched = new ArrayList<>();
+        for (Shop shop : shops) {
+            if (ShopNameIndex.normalize(shop.getName()).startsWith(key)) {
+                matched.add(shop);
+            }
+        }
+        matched.sort(Comparator.comparingLong(ShopNameSuggesterTest::weight).reversed()
+                .thenComparing(shop -> ShopNameIndex.normalize(shop.getName()))
+                .thenComparingLong(Shop::getId));
+        List<Long> ids = new ArrayList<>();
+        for (Shop shop : matched.subList(0, Math.min(limit, matched.size()))) {
+            ids.add(shop.getId());
+        }
+        return ids;
+    }
+
+    private static long weight(Shop shop) {
+        return (shop.getSold() + 1L) * (shop.getScore() + 1L);
+    }
+
+    private ShopNameSuggester newSuggester() {
+        ShopNameSuggester suggester = new ShopNameSuggester();
+        ReflectionTestUtils.setField(suggester, "shopMapper", shopMapper);
+        ReflectionTestUtils.setField(suggester, "enabled", true);
+        ReflectionTestUtils.setField(suggester, "refreshMinutes", 30L);
+        ReflectionTestUtils.setField(suggester, "maxLimit", MAX_LIMIT);
+        return suggester;
+    }
+
+    private String randomName(int length) {
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            name.append(CHARS.charAt(random.nextInt(CHARS.length())));
+        }
+        return name.toString();
+    }
+}
@@ -0,0 +1,131 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SingleFlightTest {
+
+    private final SingleFlight singleFlight = new SingleFlight();
+
+    @Test
+    void testConcurrentCallsShareOneLoad() throws InterruptedException {
+        // leader 加载时阻塞，等其他线程都在等待结果后再放行
+        int followers = 20;
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Object value = new Object();
+        List<Object> results = new ArrayList<>();
+        Runnable call = () -> {
+            Object result = singleFlight.execute("shop:1", () -> {
+                loads.incrementAndGet();
+                entered.countDown();
+                await(release);
+                return value;
+            });
+            synchronized (results) {
+                results.add(result);
+            }
+        };
+
+        Thread leader = new Thread(call);
+        leader.start();
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < followers; i++) {
+            Thread thread = new Thread(call);
+            thread.start();
+            threads.add(thread);
+        }
+        waitUntilBlocked(threads);
+        release.countDown();
+        leader.join();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(1, loads.get());
+        assertEquals(followers + 1, results.size());
+        for (Object result : results) {
+            assertSame(value, result);
+        }
+    }
+
+    @Test
+    void testExceptionPropagatesToWaiters() throws InterruptedException {
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        IllegalStateException failure = new IllegalStateException("db down");
+        AtomicReference<Throwable> leaderError = new AtomicReference<>();
+        AtomicReference<Throwable> followerError = new AtomicReference<>();
+
+        Thread leader = new Thread(() -> {
+            try {
+                singleFlight.execute("shop:1", () -> {
+                    entered.countDown();
+                    await(release);
+                    throw failure;
+                });
+            } catch (Throwable e) {
+                leaderError.set(e);
+            }
+        });
+        leader.start();
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+        Thread follower = new Thread(() -> {
+            try {
+                singleFlight.execute("shop:1", () -> "not loaded");
+            } catch (Throwable e) {
+                followerError.set(e);
+            }
+        });
+        follower.start();
+        List<Thread> threads = new ArrayList<>();
+        threads.add(follower);
+        waitUntilBlocked(threads);
+        release.countDown();
+        leader.join();
+        follower.join();
+
+        assertSame(failure, leaderError.get());
+        assertSame(failure, followerError.get());
+        // 失败后不保留结果，下一次调用重新加载
+        assertEquals("reloaded", singleFlight.execute("shop:1", () -> "reloaded"));
+    }
+
+    @Test
+    void testLeaderExceptionIsRethrown() {
+        assertThrows(IllegalArgumentException.class, () -> singleFlight.execute("shop:2", () -> {
+            throw new IllegalArgumentException();
+        }));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void waitUntilBlocked(List<Thread> threads) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        for (Thread thread : threads) {
+            while (thread.getState() != Thread.State.WAITING && thread.getState() != Thread.State.TERMINATED) {
+                assertTrue(System.currentTimeMillis() < deadline, "线程没有进入等待");
+                Thread.sleep(1);
+            }
+        }
+    }
+}